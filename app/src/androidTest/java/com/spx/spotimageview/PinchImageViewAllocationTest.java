@@ -0,0 +1,227 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 检查PinchImageView处理移动事件时不分配内存
+ * <p>
+ * 在真机上依次回放双指缩放,缩放结束后的单指滚动,重置后的单指拖动三段手势,
+ * 用{@link Debug#getThreadAllocCount()}统计主线程处理每个ACTION_MOVE分配的对象数,三种模式都必须为0.
+ * 本地单元测试里Matrix由Robolectric模拟,模拟实现本身每次运算都会分配,所以放在真机上测.
+ * 事件在统计之前全部创建好,整套手势先完整回放一遍预热对象池和速度跟踪器.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinchImageViewAllocationTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+
+    /**
+     * 移动事件的间隔,毫秒
+     */
+    private static final int MOVE_INTERVAL = 16;
+
+    private static final int MOVE_COUNT = 30;
+
+    /**
+     * 等待松手后的缩放和回弹动画结束
+     */
+    private static final long SETTLE_MILLIS = 500;
+
+    private PinchImageView mView;
+
+    private final List<MotionEvent> mEvents = new ArrayList<MotionEvent>();
+
+    /**
+     * 用于确认运行时支持分配统计
+     */
+    private Object mProbe;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView = new PinchImageView(InstrumentationRegistry.getTargetContext());
+                mView.setImageBitmap(Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888));
+                mView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+            }
+        });
+        Debug.startAllocCounting();
+    }
+
+    @After
+    public void tearDown() {
+        Debug.stopAllocCounting();
+        for (MotionEvent event : mEvents) {
+            event.recycle();
+        }
+        mEvents.clear();
+    }
+
+    @Test
+    public void moveEvents_doNotAllocate() {
+        assumeAllocCountingSupported();
+        long start = SystemClock.uptimeMillis();
+        List<MotionEvent> pinch = pinch(start);
+        List<MotionEvent> scroll = singleFinger(start + 1000, 3, 0);
+        List<MotionEvent> drag = singleFinger(start + 2000, 0, 2);
+        //预热
+        replay(pinch, scroll, drag);
+        int[] counts = replay(pinch, scroll, drag);
+        assertEquals("objects allocated by scale moves", 0, counts[0]);
+        assertEquals("objects allocated by scroll moves", 0, counts[1]);
+        assertEquals("objects allocated by drag moves", 0, counts[2]);
+    }
+
+    /**
+     * 回放三段手势,返回每段的移动事件分配的对象数
+     * <p>
+     * 双指放大松手后图片回弹,控件停在滚动模式,下一次单指手势走滚动的处理.重置后单指手势是拖动关闭.
+     */
+    private int[] replay(List<MotionEvent> pinch, List<MotionEvent> scroll, List<MotionEvent> drag) {
+        int[] counts = new int[3];
+        counts[0] = dispatch(pinch);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        SystemClock.sleep(SETTLE_MILLIS);
+        counts[1] = dispatch(scroll);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView.reset();
+            }
+        });
+        counts[2] = dispatch(drag);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        SystemClock.sleep(SETTLE_MILLIS);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView.reset();
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * 在主线程分发事件,只统计ACTION_MOVE
+     */
+    private int dispatch(final List<MotionEvent> events) {
+        final int[] count = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < events.size(); i++) {
+                    MotionEvent event = events.get(i);
+                    boolean move = event.getActionMasked() == MotionEvent.ACTION_MOVE;
+                    if (move) {
+                        Debug.resetThreadAllocCount();
+                    }
+                    mView.dispatchTouchEvent(event);
+                    if (move) {
+                        count[0] += Debug.getThreadAllocCount();
+                    }
+                }
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * 以控件中心为中点,两指水平方向从200像素张开到600像素
+     */
+    private List<MotionEvent> pinch(long downTime) {
+        List<MotionEvent> events = new ArrayList<MotionEvent>();
+        float centerX = VIEW_WIDTH / 2;
+        float centerY = VIEW_HEIGHT / 2;
+        long time = downTime;
+        float half = 100;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_DOWN, centerX - half, centerY));
+        time += MOVE_INTERVAL;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT),
+                centerX - half, centerY, centerX + half, centerY));
+        for (int i = 1; i <= MOVE_COUNT; i++) {
+            time += MOVE_INTERVAL;
+            half = 100 + 200f * i / MOVE_COUNT;
+            events.add(obtain(downTime, time, MotionEvent.ACTION_MOVE, centerX - half, centerY, centerX + half, centerY));
+        }
+        time += MOVE_INTERVAL;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT),
+                centerX - half, centerY, centerX + half, centerY));
+        time += MOVE_INTERVAL;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_UP, centerX - half, centerY));
+        return events;
+    }
+
+    /**
+     * 单指从控件中心匀速移动,速度足够慢,不会触发甩出关闭
+     *
+     * @param dx 每个事件的横向移动距离
+     * @param dy 每个事件的纵向移动距离
+     */
+    private List<MotionEvent> singleFinger(long downTime, float dx, float dy) {
+        List<MotionEvent> events = new ArrayList<MotionEvent>();
+        float x = VIEW_WIDTH / 2;
+        float y = VIEW_HEIGHT / 2;
+        long time = downTime;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_DOWN, x, y));
+        for (int i = 0; i < MOVE_COUNT; i++) {
+            time += MOVE_INTERVAL;
+            x += dx;
+            y += dy;
+            events.add(obtain(downTime, time, MotionEvent.ACTION_MOVE, x, y));
+        }
+        time += MOVE_INTERVAL;
+        events.add(obtain(downTime, time, MotionEvent.ACTION_UP, x, y));
+        return events;
+    }
+
+    /**
+     * 生成一个事件,坐标依次为每个手指的x,y,测试结束时回收
+     */
+    private MotionEvent obtain(long downTime, long time, int action, float... xy) {
+        int pointerCount = xy.length / 2;
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = p;
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[p] = new MotionEvent.PointerCoords();
+            coords[p].x = xy[p * 2];
+            coords[p].y = xy[p * 2 + 1];
+            coords[p].pressure = 1;
+            coords[p].size = 1;
+        }
+        MotionEvent event = MotionEvent.obtain(downTime, time, action, pointerCount, properties, coords,
+                0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+        mEvents.add(event);
+        return event;
+    }
+
+    /**
+     * 运行时不支持按线程统计分配时跳过
+     */
+    private void assumeAllocCountingSupported() {
+        Debug.resetThreadAllocCount();
+        mProbe = new Object[1];
+        assumeTrue("thread alloc counting not supported", Debug.getThreadAllocCount() > 0);
+    }
+}
@@ -0,0 +1,671 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+/**
+ * 控件动画引擎
+ * <p>
+ * 一个PinchImageView的矩阵,惯性,mask,位移和透明度动画都由这里驱动.
+ * 所有动画共用一个帧回调,每帧把正在进行的动画依次更新完之后只重绘一次.
+ * 各个动画的状态对象在创建引擎时就分配好,启动动画只是重新填值,不产生垃圾.
+ * 没有动画在进行时不再注册帧回调,完全空闲.
+ * <p>
+ * API 16以上使用Choreographer和屏幕刷新同步,以下用Handler每16ms模拟一帧.
+ * 只能在主线程使用.
+ *
+ * @see Target
+ */
+final class AnimationEngine {
+
+    /**
+     * 属性动画:控件y方向位移
+     */
+    static final int PROPERTY_TRANSLATION_Y = 0;
+
+    /**
+     * 属性动画:控件透明度
+     */
+    static final int PROPERTY_ALPHA = 1;
+
+    /**
+     * 属性动画:背景(父控件)透明度
+     */
+    static final int PROPERTY_BACKGROUND_ALPHA = 2;
+
+    /**
+     * 属性动画的个数
+     */
+    private static final int PROPERTY_COUNT = 3;
+
+    /**
+     * 没有Choreographer时模拟一帧的间隔
+     */
+    private static final long FRAME_DELAY = 16;
+
+    /**
+     * 动画的应用对象
+     * <p>
+     * 引擎只负责计算每帧的值,由这里写回到控件上.
+     * 回调里不需要重绘,引擎在一帧结束时统一调用onInvalidate.
+     */
+    interface Target {
+
+        /**
+         * 设置外部矩阵
+         *
+         * @param values 矩阵的9个数值
+         */
+        void onTransform(float[] values);
+
+        /**
+         * 惯性移动一帧
+         *
+         * @param dx 本帧移动距离
+         * @param dy 本帧移动距离
+         * @return 是否还能移动, 返回false时惯性动画结束
+         */
+        boolean onFling(float dx, float dy);
+
+        /**
+         * 应用本帧之前积攒的触摸输入,在所有动画之前执行
+         * <p>
+         * 输入引起的重绘由应用对象自己负责.
+         *
+         * @see #requestInputFrame()
+         */
+        void onInputFrame();
+
+        /**
+         * 设置mask
+         *
+         * @param values left,top,right,bottom
+         */
+        void onMask(float[] values);
+
+        /**
+         * 设置控件属性
+         *
+         * @param property 属性,见PROPERTY_*
+         * @param value    属性值
+         */
+        void onProperty(int property, float value);
+
+        /**
+         * 本帧图片内容有变化,需要重绘
+         */
+        void onInvalidate();
+    }
+
+    private final Target mTarget;
+
+    /**
+     * 矩阵动画状态
+     */
+    private final TweenState mTransform = new TweenState(9);
+
+    /**
+     * 惯性动画状态
+     */
+    private final FlingState mFling = new FlingState();
+
+    /**
+     * mask动画状态
+     */
+    private final TweenState mMask = new TweenState(4);
+
+    /**
+     * 属性动画状态,下标为PROPERTY_*
+     */
+    private final TweenState[] mProperties = new TweenState[PROPERTY_COUNT];
+
+    /**
+     * API 16以上为Choreographer.FrameCallback,低版本为null
+     * <p>
+     * 声明为Object避免低版本加载类时找不到Choreographer.
+     */
+    private final Object mFrameCallback;
+
+    /**
+     * 低版本模拟帧回调用的handler
+     */
+    private final Handler mHandler;
+
+    private final Runnable mHandlerCallback;
+
+    /**
+     * 是否已经注册了下一帧的回调
+     */
+    private boolean mScheduled;
+
+    /**
+     * 下一帧需要回调{@link Target#onInputFrame()}
+     */
+    private boolean mInputPending;
+
+    /**
+     * 创建动画引擎,必须在主线程调用
+     *
+     * @param target 动画的应用对象
+     */
+    AnimationEngine(Target target) {
+        mTarget = target;
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            mProperties[i] = new TweenState(1);
+        }
+        if (Build.VERSION.SDK_INT >= 16) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    AnimationEngine.this.doFrame(frameTimeNanos);
+                }
+            };
+            mHandler = null;
+            mHandlerCallback = null;
+        } else {
+            mFrameCallback = null;
+            mHandler = new Handler();
+            mHandlerCallback = new Runnable() {
+                @Override
+                public void run() {
+                    doFrame(System.nanoTime());
+                }
+            };
+        }
+    }
+
+
+    ////////////////////////////////矩阵动画////////////////////////////////
+
+    /**
+     * 在给定时间内从一个矩阵动画到另一个矩阵
+     * <p>
+     * 会替换正在进行的矩阵动画.
+     *
+     * @param start    开始矩阵
+     * @param end      结束矩阵
+     * @param duration 动画时间
+     */
+    void animateTransform(Matrix start, Matrix end, long duration) {
+        start.getValues(mTransform.mStart);
+        end.getValues(mTransform.mEnd);
+        mTransform.start(duration, null);
+        schedule();
+    }
+
+    /**
+     * 图片替换后修正矩阵动画的起止矩阵
+     *
+     * @param compensate 新内部坐标到旧内部坐标的变换
+     */
+    void compensateTransform(Matrix compensate) {
+        if (!mTransform.mRunning) {
+            return;
+        }
+        Matrix matrix = MathUtils.matrixTake();
+        Matrix result = MathUtils.matrixTake();
+        matrix.setValues(mTransform.mStart);
+        result.set(compensate);
+        result.postConcat(matrix);
+        result.getValues(mTransform.mStart);
+        matrix.setValues(mTransform.mEnd);
+        result.set(compensate);
+        result.postConcat(matrix);
+        result.getValues(mTransform.mEnd);
+        MathUtils.matrixGiven(result);
+        MathUtils.matrixGiven(matrix);
+    }
+
+    boolean isTransformRunning() {
+        return mTransform.mRunning;
+    }
+
+
+    ////////////////////////////////惯性动画////////////////////////////////
+
+    /**
+     * 开始惯性动画
+     * <p>
+     * 速度随时间变化为v0*e^(-kt),衰减到minSpeed或者不能移动时停止.
+     * 每帧按帧时间算出应该到达的位置,所以位移和时长与刷新率无关,掉帧时也不会变慢.
+     * 会替换正在进行的惯性动画.
+     *
+     * @param vx        x方向速度,像素/秒
+     * @param vy        y方向速度,像素/秒
+     * @param decay     衰减常数k,单位 1/秒
+     * @param minSpeed  停止速度,像素/秒
+     * @param endAction 动画结束时执行,可以为null
+     */
+    void fling(float vx, float vy, float decay, float minSpeed, Runnable endAction) {
+        FlingState fling = mFling;
+        fling.mVelocityX = vx;
+        fling.mVelocityY = vy;
+        fling.mDecay = decay;
+        fling.mDurationNanos = getFlingDuration(MathUtils.getDistance(0, 0, vx, vy), decay, minSpeed);
+        fling.mStartTime = -1;
+        fling.mLastX = 0;
+        fling.mLastY = 0;
+        fling.mEndAction = endAction;
+        fling.mFinished = false;
+        fling.mRunning = true;
+        schedule();
+    }
+
+    /**
+     * 计算惯性动画时长
+     * <p>
+     * v0*e^(-kT)=minSpeed,所以T=ln(v0/minSpeed)/k.
+     *
+     * @param speed    初速度,像素/秒
+     * @param decay    衰减常数k,单位 1/秒
+     * @param minSpeed 停止速度,像素/秒
+     * @return 时长, 纳秒
+     */
+    static long getFlingDuration(float speed, float decay, float minSpeed) {
+        if (speed <= minSpeed) {
+            return 0;
+        }
+        return (long) (Math.log(speed / minSpeed) / decay * 1000000000L);
+    }
+
+    /**
+     * 计算惯性动画总位移
+     * <p>
+     * 位移为速度在0到T上的积分(v0-v(T))/k,也就是(v0-minSpeed)/k.
+     *
+     * @param speed    初速度,像素/秒
+     * @param decay    衰减常数k,单位 1/秒
+     * @param minSpeed 停止速度,像素/秒
+     * @return 总位移, 像素
+     */
+    static float getFlingDistance(float speed, float decay, float minSpeed) {
+        if (speed <= minSpeed) {
+            return 0;
+        }
+        return (speed - minSpeed) / decay;
+    }
+
+    boolean isFlingRunning() {
+        return mFling.mRunning;
+    }
+
+
+    ////////////////////////////////mask动画////////////////////////////////
+
+    /**
+     * 将mask从一个rect动画到另外一个rect
+     * <p>
+     * 会替换正在进行的mask动画.
+     *
+     * @param start    开始mask
+     * @param end      结束mask
+     * @param duration 动画时间
+     */
+    void animateMask(RectF start, RectF end, long duration) {
+        float[] from = mMask.mStart;
+        from[0] = start.left;
+        from[1] = start.top;
+        from[2] = start.right;
+        from[3] = start.bottom;
+        float[] to = mMask.mEnd;
+        to[0] = end.left;
+        to[1] = end.top;
+        to[2] = end.right;
+        to[3] = end.bottom;
+        mMask.start(duration, null);
+        schedule();
+    }
+
+    void cancelMask() {
+        mMask.cancel();
+        unscheduleIfIdle();
+    }
+
+
+    ////////////////////////////////属性动画////////////////////////////////
+
+    /**
+     * 控件属性动画
+     * <p>
+     * 会替换同一属性正在进行的动画,被替换的动画不会执行endAction.
+     *
+     * @param property  属性,见PROPERTY_*
+     * @param from      起始值
+     * @param to        结束值
+     * @param duration  动画时间
+     * @param endAction 动画结束时执行,可以为null
+     */
+    void animateProperty(int property, float from, float to, long duration, Runnable endAction) {
+        TweenState state = mProperties[property];
+        state.mStart[0] = from;
+        state.mEnd[0] = to;
+        state.start(duration, endAction);
+        schedule();
+    }
+
+    boolean isPropertyRunning(int property) {
+        return mProperties[property].mRunning;
+    }
+
+
+    ////////////////////////////////整体控制////////////////////////////////
+
+    /**
+     * 停止矩阵和惯性动画
+     * <p>
+     * 被停止的动画不执行endAction.
+     */
+    void cancelGesture() {
+        mTransform.cancel();
+        mFling.cancel();
+        unscheduleIfIdle();
+    }
+
+    /**
+     * 停止所有动画,不执行endAction
+     */
+    void cancelAll() {
+        mInputPending = false;
+        mTransform.cancel();
+        mFling.cancel();
+        mMask.cancel();
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            mProperties[i].cancel();
+        }
+        unscheduleIfIdle();
+    }
+
+    /**
+     * 请求在下一帧处理积攒的触摸输入
+     * <p>
+     * 同一帧内多次请求只回调一次{@link Target#onInputFrame()}.
+     * Choreographer先分发输入事件再执行帧回调,一帧内到达的移动事件都会在这一次里应用.
+     */
+    void requestInputFrame() {
+        mInputPending = true;
+        schedule();
+    }
+
+    /**
+     * 是否有动画在进行
+     */
+    boolean isRunning() {
+        if (mTransform.mRunning || mFling.mRunning || mMask.mRunning) {
+            return true;
+        }
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            if (mProperties[i].mRunning) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 注册下一帧的回调
+     */
+    private void schedule() {
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+        if (mFrameCallback != null) {
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.postDelayed(mHandlerCallback, FRAME_DELAY);
+        }
+    }
+
+    /**
+     * 没有动画时撤销已注册的帧回调
+     */
+    private void unscheduleIfIdle() {
+        if (!mScheduled || isRunning() || mInputPending) {
+            return;
+        }
+        mScheduled = false;
+        if (mFrameCallback != null) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.removeCallbacks(mHandlerCallback);
+        }
+    }
+
+    /**
+     * 更新一帧
+     * <p>
+     * 先更新所有动画的值,再统一重绘,最后执行结束动画的endAction.
+     * endAction里可以启动新的动画.
+     *
+     * @param frameTimeNanos 帧时间,System.nanoTime时基
+     */
+    private void doFrame(long frameTimeNanos) {
+        if (SpanTracer.ENABLED) {
+            SpanTracer.begin(SpanTracer.SPAN_FRAME);
+        }
+        runFrame(frameTimeNanos);
+        if (SpanTracer.ENABLED) {
+            SpanTracer.end(SpanTracer.SPAN_FRAME);
+        }
+    }
+
+    private void runFrame(long frameTimeNanos) {
+        mScheduled = false;
+        //先应用输入,本帧的动画基于最新的手指位置
+        if (mInputPending) {
+            mInputPending = false;
+            mTarget.onInputFrame();
+        }
+        boolean invalidate = false;
+        //矩阵动画
+        if (mTransform.mRunning) {
+            mTransform.update(frameTimeNanos);
+            mTarget.onTransform(mTransform.mResult);
+            invalidate = true;
+        }
+        //惯性动画
+        FlingState fling = mFling;
+        if (fling.mRunning) {
+            if (fling.update(frameTimeNanos)) {
+                //不能移动了就结束
+                if (!mTarget.onFling(fling.mDeltaX, fling.mDeltaY)) {
+                    fling.mFinished = true;
+                }
+                invalidate = true;
+            }
+        }
+        //mask动画
+        if (mMask.mRunning) {
+            mMask.update(frameTimeNanos);
+            mTarget.onMask(mMask.mResult);
+            invalidate = true;
+        }
+        //属性动画,控件属性自己会触发刷新
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            TweenState state = mProperties[i];
+            if (state.mRunning) {
+                state.update(frameTimeNanos);
+                mTarget.onProperty(i, state.mResult[0]);
+            }
+        }
+        if (invalidate) {
+            mTarget.onInvalidate();
+        }
+        //所有值都应用完再结束,endAction里可能启动新动画
+        mTransform.finishIfDone();
+        fling.finishIfDone();
+        mMask.finishIfDone();
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            mProperties[i].finishIfDone();
+        }
+        if (isRunning()) {
+            schedule();
+        }
+    }
+
+    /**
+     * 插值器,和ValueAnimator默认的AccelerateDecelerateInterpolator相同
+     *
+     * @param input 时间进度,0-1范围
+     * @return 动画进度
+     */
+    static float interpolate(float input) {
+        return (float) (Math.cos((input + 1) * Math.PI) / 2.0f) + 0.5f;
+    }
+
+    /**
+     * 动画状态基类
+     */
+    private static abstract class State {
+
+        boolean mRunning;
+
+        /**
+         * 本帧已经到达终点,等本帧所有值应用完后结束
+         */
+        boolean mFinished;
+
+        Runnable mEndAction;
+
+        void cancel() {
+            mRunning = false;
+            mFinished = false;
+            mEndAction = null;
+        }
+
+        void finishIfDone() {
+            if (!mRunning || !mFinished) {
+                return;
+            }
+            //先清空再执行,endAction里可能重新启动这个动画
+            Runnable endAction = mEndAction;
+            cancel();
+            if (endAction != null) {
+                endAction.run();
+            }
+        }
+    }
+
+    /**
+     * 在给定时间内从起始值插值到结束值的动画
+     */
+    private static class TweenState extends State {
+
+        final float[] mStart;
+
+        final float[] mEnd;
+
+        final float[] mResult;
+
+        /**
+         * 第一帧的时间,-1表示还没开始
+         */
+        long mStartTime;
+
+        long mDurationNanos;
+
+        TweenState(int size) {
+            mStart = new float[size];
+            mEnd = new float[size];
+            mResult = new float[size];
+        }
+
+        void start(long duration, Runnable endAction) {
+            mStartTime = -1;
+            mDurationNanos = duration * 1000000L;
+            mEndAction = endAction;
+            mFinished = false;
+            mRunning = true;
+        }
+
+        void update(long frameTimeNanos) {
+            //以第一帧为开始时间,和ValueAnimator一样
+            if (mStartTime < 0) {
+                mStartTime = frameTimeNanos;
+            }
+            float fraction;
+            if (mDurationNanos <= 0) {
+                fraction = 1f;
+            } else {
+                fraction = Math.min(1f, (float) (frameTimeNanos - mStartTime) / mDurationNanos);
+            }
+            if (fraction >= 1f) {
+                mFinished = true;
+            }
+            float value = interpolate(fraction);
+            for (int i = 0; i < mResult.length; i++) {
+                mResult[i] = mStart[i] + (mEnd[i] - mStart[i]) * value;
+            }
+        }
+    }
+
+    /**
+     * 惯性动画
+     * <p>
+     * t时刻的位移为v0*(1-e^(-kt))/k,每帧用帧时间算出位移,和上一帧的差就是本帧移动距离.
+     */
+    private static class FlingState extends State {
+
+        /**
+         * 初速度,像素/秒
+         */
+        float mVelocityX;
+
+        float mVelocityY;
+
+        /**
+         * 衰减常数k,单位 1/秒
+         */
+        float mDecay;
+
+        /**
+         * 第一帧的时间,-1表示还没开始
+         */
+        long mStartTime;
+
+        long mDurationNanos;
+
+        /**
+         * 到上一帧为止的位移
+         */
+        float mLastX;
+
+        float mLastY;
+
+        /**
+         * 本帧移动距离
+         */
+        float mDeltaX;
+
+        float mDeltaY;
+
+        /**
+         * 计算本帧移动距离
+         *
+         * @param frameTimeNanos 帧时间
+         * @return 本帧是否需要移动
+         */
+        boolean update(long frameTimeNanos) {
+            if (mStartTime < 0) {
+                mStartTime = frameTimeNanos;
+            }
+            long elapsed = frameTimeNanos - mStartTime;
+            if (elapsed >= mDurationNanos) {
+                elapsed = mDurationNanos;
+                mFinished = true;
+            }
+            float t = elapsed / 1000000000f;
+            float ratio = (1 - (float) Math.exp(-mDecay * t)) / mDecay;
+            float x = mVelocityX * ratio;
+            float y = mVelocityY * ratio;
+            mDeltaX = x - mLastX;
+            mDeltaY = y - mLastY;
+            mLastX = x;
+            mLastY = y;
+            return mDeltaX != 0 || mDeltaY != 0;
+        }
+    }
+}
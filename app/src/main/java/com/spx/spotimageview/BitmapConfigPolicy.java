@@ -0,0 +1,138 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按图片内容选择解码的像素格式
+ * <p>
+ * JPEG没有透明通道,用RGB_565解码每个像素只占2字节,内存缓存能多放一倍的图.
+ * 其他格式可能有透明像素,仍然用ARGB_8888.
+ * <p>
+ * API 26以上可以选择HARDWARE格式,像素只存在显存里,不占java堆.
+ * 但是硬件bitmap不能读写像素,不能写入磁盘缓存,也不能被对象池复用,所以默认关闭,
+ * 需要的页面通过{@link #setHardwareAllowed(boolean)}打开.
+ */
+public class BitmapConfigPolicy {
+
+    /**
+     * 硬件bitmap格式的最低版本
+     */
+    private static final int HARDWARE_MIN_SDK = 26;
+
+    /**
+     * RGB_565解码时是否抖动,减轻渐变色上的色带
+     */
+    private static volatile boolean sDither = true;
+
+    /**
+     * 是否允许使用硬件bitmap
+     */
+    private static volatile boolean sHardwareAllowed = false;
+
+    /**
+     * 相比全部用ARGB_8888解码节省的java堆字节数
+     */
+    private static final AtomicLong sBytesSaved = new AtomicLong();
+
+    /**
+     * 硬件bitmap格式,低版本上为null
+     * <p>
+     * compileSdk没有这个常量,按名称获取.
+     */
+    private static Bitmap.Config sHardwareConfig;
+
+    public static void setDither(boolean dither) {
+        sDither = dither;
+    }
+
+    /**
+     * 设置是否允许使用硬件bitmap
+     * <p>
+     * 打开后不需要读取像素的解码结果在API 26以上使用HARDWARE格式,这些结果不会写入磁盘缓存.
+     */
+    public static void setHardwareAllowed(boolean allowed) {
+        sHardwareAllowed = allowed;
+    }
+
+    /**
+     * 获取累计节省的字节数
+     */
+    public static long getBytesSaved() {
+        return sBytesSaved.get();
+    }
+
+    /**
+     * 图片是否一定没有透明像素
+     *
+     * @param bounds 读取过尺寸的options,需要outMimeType
+     */
+    public static boolean isOpaque(BitmapFactory.Options bounds) {
+        return "image/jpeg".equals(bounds.outMimeType);
+    }
+
+    /**
+     * 选择解码格式并设置到解码参数里
+     * <p>
+     * 选择HARDWARE时会把inMutable设为false,此时不能再设置inBitmap.
+     *
+     * @param bounds           读取过尺寸的options,需要outMimeType
+     * @param options          解码参数
+     * @param needsPixelAccess 解码结果是否需要读写像素或者被对象池复用
+     * @return 选择的格式
+     */
+    public static Bitmap.Config apply(BitmapFactory.Options bounds, BitmapFactory.Options options, boolean needsPixelAccess) {
+        Bitmap.Config config = null;
+        if (!needsPixelAccess && sHardwareAllowed) {
+            config = getHardwareConfig();
+        }
+        if (config != null) {
+            options.inMutable = false;
+        } else if (isOpaque(bounds)) {
+            config = Bitmap.Config.RGB_565;
+            options.inDither = sDither;
+        } else {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        options.inPreferredConfig = config;
+        return config;
+    }
+
+    /**
+     * 记录一次解码结果节省的内存
+     * <p>
+     * 硬件bitmap的像素不在java堆上,按全部节省计算.
+     */
+    public static void recordDecoded(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        long full = (long) bitmap.getWidth() * bitmap.getHeight() * 4;
+        long actual = isHardware(bitmap) ? 0 : BitmapPool.getAllocationByteCount(bitmap);
+        if (full > actual) {
+            sBytesSaved.addAndGet(full - actual);
+        }
+    }
+
+    /**
+     * 是否为硬件bitmap
+     */
+    public static boolean isHardware(Bitmap bitmap) {
+        Bitmap.Config hardware = getHardwareConfig();
+        return hardware != null && bitmap.getConfig() == hardware;
+    }
+
+    private static synchronized Bitmap.Config getHardwareConfig() {
+        if (sHardwareConfig == null && Build.VERSION.SDK_INT >= HARDWARE_MIN_SDK) {
+            try {
+                sHardwareConfig = Bitmap.Config.valueOf("HARDWARE");
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return sHardwareConfig;
+    }
+}
@@ -0,0 +1,329 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 解码结果的磁盘缓存
+ * <p>
+ * 直接保存bitmap的原始像素,读取时通过FileChannel.map映射文件再copyPixelsFromBuffer,
+ * 跳过了jpeg等格式的熵解码,重复打开同一张图只需要一次内存拷贝.
+ * 文件格式为固定长度的文件头加像素数据,文件头见{@link #HEADER_SIZE}.
+ * 总大小超过上限时按最后访问时间淘汰.
+ * 访问顺序记在内存里,很多文件系统上修改文件时间会失败,不能依赖lastModified.
+ * 进程启动后第一次使用时按文件的修改时间,也就是写入时间,恢复初始顺序.
+ */
+public class BitmapDiskCache {
+
+    private static final String TAG = "BitmapDiskCache";
+
+    /**
+     * 文件头: magic, 版本, 宽, 高, 像素格式, 是否有透明通道, 像素字节数, 保留
+     */
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x53505842;
+    private static final int VERSION = 1;
+
+    private static final int CONFIG_ALPHA_8 = 1;
+    private static final int CONFIG_RGB_565 = 2;
+    private static final int CONFIG_ARGB_8888 = 3;
+
+    /**
+     * 缓存目录
+     */
+    private final File mDirectory;
+
+    /**
+     * 最大占用字节数
+     */
+    private final long mMaxBytes;
+
+    /**
+     * 当前占用字节数
+     */
+    private long mSize;
+
+    /**
+     * 缓存文件名到文件大小,按访问顺序排列,最久没有访问的在最前面.为null表示还没有扫描目录
+     */
+    private LinkedHashMap<String, Long> mEntries;
+
+    /**
+     * 创建磁盘缓存
+     *
+     * @param directory 缓存目录,不存在会自动创建
+     * @param maxBytes  最大占用字节数
+     */
+    public BitmapDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 读取缓存
+     *
+     * @param key  缓存key
+     * @param pool 复用内存的对象池,可以为null
+     * @return 缓存的bitmap, 没有或者文件损坏时返回null
+     */
+    public synchronized Bitmap get(String key, BitmapPool pool) {
+        ensureEntries();
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                removeFile(file);
+                return null;
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            Bitmap.Config config = toConfig(buffer.getInt());
+            boolean hasAlpha = buffer.getInt() != 0;
+            int byteCount = buffer.getInt();
+            if (config == null || width <= 0 || height <= 0 || channel.size() < HEADER_SIZE + byteCount) {
+                removeFile(file);
+                return null;
+            }
+            Bitmap bitmap = BitmapPool.obtain(pool, width, height, config);
+            if (bitmap.getByteCount() != byteCount) {
+                if (pool != null) {
+                    pool.given(bitmap);
+                } else {
+                    bitmap.recycle();
+                }
+                removeFile(file);
+                return null;
+            }
+            buffer.position(HEADER_SIZE);
+            bitmap.copyPixelsFromBuffer(buffer);
+            bitmap.setHasAlpha(hasAlpha);
+            //移到访问顺序的末尾
+            mEntries.get(file.getName());
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "get: " + key, e);
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * 写入缓存
+     * <p>
+     * 先写临时文件再重命名,写入过程中被打断不会留下损坏的缓存.
+     *
+     * @param key    缓存key
+     * @param bitmap 要缓存的bitmap,只支持ALPHA_8,RGB_565,ARGB_8888
+     */
+    public synchronized void put(String key, Bitmap bitmap) {
+        int configCode = toConfigCode(bitmap.getConfig());
+        if (configCode == 0 || bitmap.isRecycled()) {
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = getFile(key);
+        File tempFile = new File(file.getPath() + ".tmp");
+        int byteCount = bitmap.getByteCount();
+        boolean written = false;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            randomAccessFile.setLength(HEADER_SIZE + byteCount);
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + byteCount);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(configCode);
+            buffer.putInt(bitmap.hasAlpha() ? 1 : 0);
+            buffer.putInt(byteCount);
+            buffer.position(HEADER_SIZE);
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+            written = true;
+        } catch (IOException e) {
+            Log.w(TAG, "put: " + key, e);
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+        if (!written) {
+            delete(tempFile);
+            return;
+        }
+        ensureEntries();
+        if (tempFile.renameTo(file)) {
+            Long old = mEntries.put(file.getName(), file.length());
+            if (old != null) {
+                mSize -= old;
+            }
+            mSize += file.length();
+            trimToSize(mMaxBytes);
+        } else {
+            delete(tempFile);
+        }
+    }
+
+    /**
+     * 删除一条缓存
+     */
+    public synchronized void remove(String key) {
+        removeFile(getFile(key));
+    }
+
+    /**
+     * 按最后访问时间淘汰,直到总大小不超过maxBytes
+     *
+     * @param maxBytes 淘汰后的最大占用字节数
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        ensureEntries();
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            //删除失败的文件也移出索引,否则每次淘汰都卡在它上面
+            delete(file);
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 获取当前占用字节数
+     */
+    public synchronized long size() {
+        ensureEntries();
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 第一次使用时扫描目录下已有的文件,按修改时间排出初始的访问顺序并统计大小
+     */
+    private void ensureEntries() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = modified[lhs];
+                long r = modified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (Integer i : order) {
+            long length = files[i].length();
+            mEntries.put(files[i].getName(), length);
+            mSize += length;
+        }
+    }
+
+    private void removeFile(File file) {
+        ensureEntries();
+        Long length = mEntries.remove(file.getName());
+        if (length != null) {
+            mSize -= length;
+        }
+        delete(file);
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, hashKey(key));
+    }
+
+    /**
+     * key可能包含路径字符,用md5作为文件名
+     */
+    private static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        } catch (IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    private static int toConfigCode(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return CONFIG_ALPHA_8;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return CONFIG_RGB_565;
+        } else if (config == Bitmap.Config.ARGB_8888) {
+            return CONFIG_ARGB_8888;
+        }
+        return 0;
+    }
+
+    private static Bitmap.Config toConfig(int code) {
+        switch (code) {
+            case CONFIG_ALPHA_8:
+                return Bitmap.Config.ALPHA_8;
+            case CONFIG_RGB_565:
+                return Bitmap.Config.RGB_565;
+            case CONFIG_ARGB_8888:
+                return Bitmap.Config.ARGB_8888;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean delete(File file) {
+        return file.delete();
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 解码结果的内存缓存
+ * <p>
+ * 按bitmap占用的字节数限制总大小,超出时淘汰最久没有使用的条目.
+ * key由图片来源和解码参数组成,同一张图按不同尺寸解码的结果分别缓存.
+ * 命中,未命中,淘汰次数可以通过{@link #hitCount()},{@link #missCount()},{@link #evictionCount()}获取.
+ * <p>
+ * 正在显示的bitmap需要通过{@link #acquire(Bitmap)}和{@link #release(Bitmap)}标记,
+ * 被淘汰的bitmap只有在没有人使用时才会还给对象池复用.
+ *
+ * @see #keyOf(ImageSource, int, int, float)
+ */
+public class BitmapMemoryCache extends LruCache<String, Bitmap> implements Trimmable {
+
+    /**
+     * 淘汰的bitmap归还的对象池,可以为null
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * 正在使用的bitmap的引用计数
+     */
+    private final Map<Bitmap, Integer> mRefCounts = new IdentityHashMap<Bitmap, Integer>();
+
+    /**
+     * 已经被淘汰但还在使用的bitmap,最后一次release时归还对象池
+     */
+    private final Set<Bitmap> mRemovedInUse = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * 创建内存缓存
+     *
+     * @param maxBytes 最大占用字节数
+     * @param pool     淘汰的bitmap归还的对象池,可以为null
+     */
+    public BitmapMemoryCache(int maxBytes, BitmapPool pool) {
+        super(maxBytes);
+        mPool = pool;
+    }
+
+    /**
+     * 按进程可用内存的比例创建内存缓存
+     *
+     * @param fraction 占最大可用内存的比例
+     * @param pool     淘汰的bitmap归还的对象池,可以为null
+     */
+    public static BitmapMemoryCache create(float fraction, BitmapPool pool) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return new BitmapMemoryCache((int) Math.min(Integer.MAX_VALUE, maxMemory * fraction), pool);
+    }
+
+    /**
+     * 生成缓存key
+     *
+     * @param source     图片来源
+     * @param viewWidth  解码时的控件宽度
+     * @param viewHeight 解码时的控件高度
+     * @param maxScale   解码时的最大放大比例
+     * @return 缓存key
+     */
+    public static String keyOf(ImageSource source, int viewWidth, int viewHeight, float maxScale) {
+        return source.getKey() + "@" + viewWidth + "x" + viewHeight + "x" + maxScale;
+    }
+
+    /**
+     * 获取同一个来源按任意参数解码的结果中最大的一个
+     * <p>
+     * 用于在需要的尺寸还没有解码出来之前,先拿其他页面解码过的结果作为预览.
+     *
+     * @param source 图片来源
+     * @return 缓存的bitmap, 没有返回null
+     */
+    public Bitmap getLargestOf(ImageSource source) {
+        String prefix = source.getKey() + "@";
+        String largestKey = null;
+        int largestSize = 0;
+        for (Map.Entry<String, Bitmap> entry : snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getValue().getByteCount() > largestSize) {
+                largestKey = entry.getKey();
+                largestSize = entry.getValue().getByteCount();
+            }
+        }
+        //通过get读取,同时更新LRU顺序
+        return largestKey != null ? get(largestKey) : null;
+    }
+
+    /**
+     * 获取缓存并标记开始使用
+     * <p>
+     * 查询和引用计数在同一把锁里完成,其他线程的put不会在两者之间把它淘汰还给对象池.
+     *
+     * @return 缓存的bitmap, 没有返回null
+     * @see #acquire(Bitmap)
+     */
+    public synchronized Bitmap getAndAcquire(String key) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            acquire(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取同一个来源最大的解码结果并标记开始使用,查询和引用计数是原子的
+     *
+     * @see #getLargestOf(ImageSource)
+     * @see #getAndAcquire(String)
+     */
+    public synchronized Bitmap getLargestOfAndAcquire(ImageSource source) {
+        Bitmap bitmap = getLargestOf(source);
+        if (bitmap != null) {
+            acquire(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取命中率
+     *
+     * @return 0-1, 还没有查询过时返回0
+     */
+    public synchronized float getHitRate() {
+        int total = hitCount() + missCount();
+        return total == 0 ? 0f : (float) hitCount() / total;
+    }
+
+    /**
+     * 标记bitmap开始被使用
+     * <p>
+     * 使用期间即使被淘汰也不会被复用,用完需要调用{@link #release(Bitmap)}.
+     */
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * 标记bitmap不再被使用
+     * <p>
+     * 如果它已经被淘汰,并且没有其他人在使用,就还给对象池.
+     */
+    public void release(Bitmap bitmap) {
+        boolean free = false;
+        synchronized (this) {
+            Integer count = mRefCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mRefCounts.put(bitmap, count - 1);
+            } else {
+                mRefCounts.remove(bitmap);
+                free = mRemovedInUse.remove(bitmap);
+            }
+        }
+        if (free && mPool != null) {
+            mPool.given(bitmap);
+        }
+    }
+
+    /**
+     * 按级别淘汰最久没有使用的条目
+     * <p>
+     * 正在显示的bitmap被淘汰后仍然有效,等页面release时才还给对象池.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (level >= TRIM_LEVEL_VISIBLE_ONLY) {
+            evictAll();
+        } else if (level >= TRIM_LEVEL_PYRAMID) {
+            trimTo(maxSize() / 4);
+        } else {
+            trimTo(maxSize() / 2);
+        }
+    }
+
+    /**
+     * 淘汰最久没有使用的条目直到总大小不超过maxBytes
+     * <p>
+     * LruCache.trimToSize在API 17才公开,这里按snapshot的访问顺序逐个移除.
+     */
+    private void trimTo(int maxBytes) {
+        for (String key : snapshot().keySet()) {
+            if (size() <= maxBytes) {
+                break;
+            }
+            remove(key);
+        }
+    }
+
+    @Override
+    protected int sizeOf(String key, Bitmap value) {
+        return value.getByteCount();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        if (oldValue == newValue) {
+            return;
+        }
+        synchronized (this) {
+            //还在使用,等最后一次release再归还
+            if (mRefCounts.containsKey(oldValue)) {
+                mRemovedInUse.add(oldValue);
+                return;
+            }
+        }
+        if (mPool != null) {
+            mPool.given(oldValue);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * bitmap对象池
+ * <p>
+ * 和PinchImageView里的ObjectsPool思路相同,take借出,given归还,防止频繁创建bitmap引起GC.
+ * 归还的bitmap按占用字节数向上取2的幂分级存放,借出时在需要的级别和上一级里找能容纳的bitmap,
+ * 交给BitmapFactory.Options.inBitmap复用内存.
+ * API 19以下inBitmap要求尺寸完全一致,只按宽高和格式精确匹配.
+ * 总字节数超过上限时从最大的级别开始回收.
+ */
+public class BitmapPool implements Trimmable {
+
+    /**
+     * 最大容量,字节
+     */
+    private final long mMaxBytes;
+
+    /**
+     * 当前池内bitmap的总字节数
+     */
+    private long mCurrentBytes;
+
+    /**
+     * 按大小分级的空闲bitmap,key为字节数以2为底的对数向上取整
+     */
+    private final SparseArray<LinkedList<Bitmap>> mBuckets = new SparseArray<LinkedList<Bitmap>>();
+
+    /**
+     * 借用次数
+     */
+    private int mRequestCount;
+
+    /**
+     * 借用成功的次数
+     */
+    private int mHitCount;
+
+    /**
+     * 创建一个bitmap对象池
+     *
+     * @param maxBytes 池内bitmap最大总字节数
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 借出一个能容纳指定尺寸的bitmap
+     * <p>
+     * 返回的bitmap内容和尺寸都是上一次使用时的,需要交给inBitmap或者调用reconfigure后再使用.
+     *
+     * @return 可复用的bitmap, 没有合适的返回null
+     */
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        mRequestCount++;
+        int bytes = width * height * getBytesPerPixel(config);
+        if (bytes <= 0) {
+            return null;
+        }
+        int bucket = getBucket(bytes);
+        if (Build.VERSION.SDK_INT >= 19) {
+            //上一级的bitmap一定够用,再往上就太浪费了
+            for (int i = bucket; i <= bucket + 1; i++) {
+                Bitmap bitmap = poll(i, bytes, 0, 0, null);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+            return null;
+        } else {
+            return poll(bucket, bytes, width, height, config);
+        }
+    }
+
+    /**
+     * 从对象池借用指定尺寸和格式的bitmap,没有时创建
+     *
+     * @param pool 对象池,可以为null
+     * @return 尺寸和格式符合要求的bitmap, 内容不确定
+     */
+    public static Bitmap obtain(BitmapPool pool, int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = pool != null ? pool.take(width, height, config) : null;
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        if (Build.VERSION.SDK_INT >= 19) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 归还bitmap
+     * <p>
+     * 不可变的或者已经回收的bitmap不能复用,直接回收.
+     * 归还之后调用者不能再使用这个bitmap.
+     *
+     * @param bitmap 归还的bitmap
+     */
+    public synchronized void given(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = getAllocationByteCount(bitmap);
+        if (!bitmap.isMutable() || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        int bucket = getBucket(bytes);
+        LinkedList<Bitmap> list = mBuckets.get(bucket);
+        if (list == null) {
+            list = new LinkedList<Bitmap>();
+            mBuckets.put(bucket, list);
+        }
+        list.addLast(bitmap);
+        mCurrentBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 设置解码参数,让解码结果复用池内的bitmap
+     * <p>
+     * 解码失败时需要调用{@link #clearFrom(BitmapFactory.Options)}去掉inBitmap再试一次,
+     * 因为实际解码尺寸和预计的可能不同.
+     *
+     * @param options 解码参数
+     * @param width   预计的解码宽度
+     * @param height  预计的解码高度
+     */
+    public void applyTo(BitmapFactory.Options options, int width, int height) {
+        options.inMutable = true;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = take(width, height, config);
+    }
+
+    /**
+     * 去掉解码参数里的inBitmap,并把它还回池里
+     */
+    public void clearFrom(BitmapFactory.Options options) {
+        if (options.inBitmap != null) {
+            given(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * 回收池内bitmap直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        for (int i = mBuckets.size() - 1; i >= 0 && mCurrentBytes > maxBytes; i--) {
+            LinkedList<Bitmap> list = mBuckets.valueAt(i);
+            while (!list.isEmpty() && mCurrentBytes > maxBytes) {
+                Bitmap bitmap = list.removeFirst();
+                mCurrentBytes -= getAllocationByteCount(bitmap);
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * 清空对象池
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 池内的bitmap都是空闲的,按级别释放一半或者全部
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (level >= TRIM_LEVEL_PYRAMID) {
+            clear();
+        } else {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    public synchronized long size() {
+        return mCurrentBytes;
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 获取借用命中率
+     *
+     * @return 0-1, 还没有借用过时返回0
+     */
+    public synchronized float getHitRate() {
+        return mRequestCount == 0 ? 0f : (float) mHitCount / mRequestCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + mCurrentBytes + ",maxSize=" + mMaxBytes
+                + ",requests=" + mRequestCount + ",hits=" + mHitCount + "]";
+    }
+
+    /**
+     * 从某一级里取出合适的bitmap
+     * <p>
+     * config为null时只要求字节数足够,否则要求宽高和格式完全一致.
+     */
+    private Bitmap poll(int bucket, int bytes, int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> list = mBuckets.get(bucket);
+        if (list == null) {
+            return null;
+        }
+        Iterator<Bitmap> iterator = list.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            boolean match = config == null ? getAllocationByteCount(bitmap) >= bytes
+                    : bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+            if (match) {
+                iterator.remove();
+                mCurrentBytes -= getAllocationByteCount(bitmap);
+                mHitCount++;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 字节数以2为底的对数向上取整
+     */
+    private static int getBucket(int bytes) {
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+
+    static int getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= 19) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,197 @@
+package com.spx.spotimageview;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台解码调度
+ * <p>
+ * 线程数等于cpu核数,等待中的任务按优先级排序,数值越小越先执行,相同优先级先提交的先执行.
+ * 任务开始执行之前可以调整优先级或者取消,取消的任务直接从队列里移除,不会占用线程.
+ * 图块的优先级由离可见区域中心的距离和缩放级别决定,见{@link TiledImage}.
+ */
+public class DecodeScheduler {
+
+    private static final String TAG = "DecodeScheduler";
+
+    /**
+     * 最高优先级,用于整图加载和分块模式的底图
+     */
+    public static final float PRIORITY_HIGHEST = -Float.MAX_VALUE;
+
+    /**
+     * 空闲线程的存活时间,秒
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static DecodeScheduler sDefault;
+
+    /**
+     * 获取全局共享的调度器
+     */
+    public static synchronized DecodeScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new DecodeScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return sDefault;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * 提交顺序,用于相同优先级时保持先进先出
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * 创建调度器
+     *
+     * @param threadCount 线程数
+     */
+    public DecodeScheduler(int threadCount) {
+        threadCount = Math.max(1, threadCount);
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交任务
+     */
+    public void submit(Task task) {
+        task.mSequence = mSequence.getAndIncrement();
+        mExecutor.execute(task);
+    }
+
+    /**
+     * 调整还没有开始执行的任务的优先级
+     * <p>
+     * 优先级队列不会因为元素变化重新排序,需要先移除再重新放入.
+     *
+     * @param task     任务
+     * @param priority 新的优先级
+     */
+    public void reprioritize(Task task, float priority) {
+        if (task.mPriority == priority) {
+            return;
+        }
+        if (mExecutor.remove(task)) {
+            task.mPriority = priority;
+            mExecutor.execute(task);
+        } else {
+            task.mPriority = priority;
+        }
+    }
+
+    /**
+     * 取消任务
+     * <p>
+     * 还没有开始的任务从队列中移除,已经开始的任务通过{@link Task#isCancelled()}自行判断.
+     */
+    public void cancel(Task task) {
+        task.mCancelled = true;
+        mExecutor.remove(task);
+    }
+
+    /**
+     * 获取等待中的任务数
+     */
+    public int getPendingCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * 解码任务
+     */
+    public abstract static class Task implements Runnable, Comparable<Task> {
+
+        /**
+         * 优先级,数值越小越先执行
+         */
+        private volatile float mPriority;
+
+        /**
+         * 提交顺序
+         */
+        private long mSequence;
+
+        /**
+         * 是否已经取消
+         */
+        private volatile boolean mCancelled;
+
+        public Task(float priority) {
+            mPriority = priority;
+        }
+
+        public float getPriority() {
+            return mPriority;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public final void run() {
+            if (mCancelled) {
+                return;
+            }
+            if (SpanTracer.ENABLED) {
+                SpanTracer.begin(SpanTracer.SPAN_DECODE);
+            }
+            try {
+                execute();
+            } catch (Throwable e) {
+                //解码线程上的异常和内存不足不能抛出去,否则整个进程崩溃
+                Log.e(TAG, "run: task failed", e);
+            } finally {
+                if (SpanTracer.ENABLED) {
+                    SpanTracer.end(SpanTracer.SPAN_DECODE);
+                }
+            }
+        }
+
+        /**
+         * 在后台线程执行
+         * <p>
+         * 抛出的异常只会被记录,需要通知结果的任务自己捕获.
+         */
+        protected abstract void execute();
+
+        @Override
+        public int compareTo(Task another) {
+            int result = Float.compare(mPriority, another.mPriority);
+            if (result != 0) {
+                return result;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * 创建后台优先级的解码线程,不和ui线程抢cpu
+     */
+    private static class DecodeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "decode-" + mCount.incrementAndGet());
+        }
+    }
+}
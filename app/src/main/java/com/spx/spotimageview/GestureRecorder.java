@@ -0,0 +1,194 @@
+package com.spx.spotimageview;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 触摸事件录制
+ * <p>
+ * 通过{@link View#setOnTouchListener(View.OnTouchListener)}挂到控件上,不消费事件,
+ * 把收到的MotionEvent按紧凑的二进制格式记录下来,包括批量的历史采样点.
+ * 录制结果用{@link #readEvents(InputStream, long)}还原成MotionEvent,可以在单元测试里回放,
+ * 用真实的手势检查控件的行为和性能有没有退化.
+ * <p>
+ * 文件格式,全部为大端:
+ * <pre>
+ * int 魔数, short 版本, int 事件数
+ * 每个事件:
+ *   byte 动作, byte 动作的手指下标, int 距第一个事件的毫秒数, float rawX-x, float rawY-y
+ *   byte 手指数, 每个手指 byte id, byte 工具类型
+ *   short 历史采样数, 每个采样 int 距第一个事件的毫秒数, 每个手指 float x, float y
+ *   每个手指 float x, float y
+ * </pre>
+ */
+public class GestureRecorder implements View.OnTouchListener {
+
+    private static final int MAGIC = 0x53504752;
+
+    private static final short VERSION = 1;
+
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+
+    private final DataOutputStream mOutput = new DataOutputStream(mBuffer);
+
+    private int mEventCount;
+
+    /**
+     * 第一个事件的时间,所有时间按它的差值保存
+     */
+    private long mStartTime = -1;
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        record(event);
+        return false;
+    }
+
+    /**
+     * 记录一个事件,不持有event
+     */
+    public void record(MotionEvent event) {
+        if (mStartTime < 0) {
+            mStartTime = event.getDownTime();
+        }
+        try {
+            int pointerCount = event.getPointerCount();
+            mOutput.writeByte(event.getActionMasked());
+            mOutput.writeByte(event.getActionIndex());
+            mOutput.writeInt((int) (event.getEventTime() - mStartTime));
+            mOutput.writeFloat(event.getRawX() - event.getX());
+            mOutput.writeFloat(event.getRawY() - event.getY());
+            mOutput.writeByte(pointerCount);
+            for (int p = 0; p < pointerCount; p++) {
+                mOutput.writeByte(event.getPointerId(p));
+                mOutput.writeByte(event.getToolType(p));
+            }
+            int historySize = event.getHistorySize();
+            mOutput.writeShort(historySize);
+            for (int h = 0; h < historySize; h++) {
+                mOutput.writeInt((int) (event.getHistoricalEventTime(h) - mStartTime));
+                for (int p = 0; p < pointerCount; p++) {
+                    mOutput.writeFloat(event.getHistoricalX(p, h));
+                    mOutput.writeFloat(event.getHistoricalY(p, h));
+                }
+            }
+            for (int p = 0; p < pointerCount; p++) {
+                mOutput.writeFloat(event.getX(p));
+                mOutput.writeFloat(event.getY(p));
+            }
+            mEventCount++;
+        } catch (IOException e) {
+            //写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * 清空已经录制的事件
+     */
+    public void clear() {
+        mBuffer.reset();
+        mEventCount = 0;
+        mStartTime = -1;
+    }
+
+    /**
+     * 写出录制结果,不关闭out
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(mEventCount);
+        mBuffer.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * 读取录制结果
+     * <p>
+     * 返回的事件由调用者recycle.
+     *
+     * @param in        录制结果,不会被关闭
+     * @param startTime 第一个事件的时间,{@link android.os.SystemClock#uptimeMillis()}时间基准
+     * @return 按顺序排列的事件
+     * @throws IOException 格式不对或者数据不完整
+     */
+    public static List<MotionEvent> readEvents(InputStream in, long startTime) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a gesture recording");
+        }
+        short version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("unsupported gesture recording version: " + version);
+        }
+        int eventCount = data.readInt();
+        List<MotionEvent> events = new ArrayList<MotionEvent>(eventCount);
+        long downTime = startTime;
+        try {
+            for (int i = 0; i < eventCount; i++) {
+                int actionMasked = data.readUnsignedByte();
+                int actionIndex = data.readUnsignedByte();
+                long eventTime = startTime + data.readInt();
+                float rawOffsetX = data.readFloat();
+                float rawOffsetY = data.readFloat();
+                int pointerCount = data.readUnsignedByte();
+                MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+                MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+                for (int p = 0; p < pointerCount; p++) {
+                    properties[p] = new MotionEvent.PointerProperties();
+                    properties[p].id = data.readUnsignedByte();
+                    properties[p].toolType = data.readUnsignedByte();
+                    coords[p] = new MotionEvent.PointerCoords();
+                    coords[p].pressure = 1;
+                    coords[p].size = 1;
+                }
+                if (actionMasked == MotionEvent.ACTION_DOWN) {
+                    downTime = eventTime;
+                }
+                int action = actionMasked | (actionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                //历史采样在前,当前采样最后加入
+                int historySize = data.readUnsignedShort();
+                MotionEvent event = null;
+                for (int h = 0; h <= historySize; h++) {
+                    long sampleTime = h < historySize ? startTime + data.readInt() : eventTime;
+                    for (int p = 0; p < pointerCount; p++) {
+                        //按屏幕坐标创建,offsetLocation之后getX回到控件坐标,getRawX保持屏幕坐标
+                        coords[p].x = data.readFloat() + rawOffsetX;
+                        coords[p].y = data.readFloat() + rawOffsetY;
+                    }
+                    if (event == null) {
+                        event = MotionEvent.obtain(downTime, sampleTime, action, pointerCount, properties, coords,
+                                0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+                    } else {
+                        event.addBatch(sampleTime, coords, 0);
+                    }
+                }
+                event.offsetLocation(-rawOffsetX, -rawOffsetY);
+                events.add(event);
+            }
+        } catch (EOFException e) {
+            for (MotionEvent event : events) {
+                event.recycle();
+            }
+            throw new IOException("truncated gesture recording", e);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,339 @@
+package com.spx.spotimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+
+/**
+ * 图片加载
+ * <p>
+ * 按内存缓存,磁盘缓存,解码的顺序获取按控件尺寸解码的图片,解码结果会同时写入两级缓存.
+ * 获取到的bitmap已经标记为使用中,不再显示时需要调用{@link #release(Bitmap)}.
+ *
+ * @see BitmapMemoryCache
+ * @see BitmapDiskCache
+ */
+public class ImageLoader {
+
+    /**
+     * 预览图的尺寸占控件尺寸的比例
+     */
+    private static final int PREVIEW_DIVISOR = 4;
+
+    private final Context mContext;
+
+    private final BitmapMemoryCache mMemoryCache;
+
+    private final BitmapDiskCache mDiskCache;
+
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * 后台解码调度
+     */
+    private final DecodeScheduler mScheduler;
+
+    /**
+     * 回调主线程
+     */
+    private final Handler mMainHandler;
+
+    public ImageLoader(Context context, BitmapMemoryCache memoryCache, BitmapDiskCache diskCache, BitmapPool bitmapPool) {
+        mContext = context.getApplicationContext();
+        mMemoryCache = memoryCache;
+        mDiskCache = diskCache;
+        mBitmapPool = bitmapPool;
+        mScheduler = DecodeScheduler.getDefault();
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public BitmapMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    public BitmapDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 释放获取到的bitmap
+     * <p>
+     * 如果它已经被内存缓存淘汰,会还给对象池复用.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap != null) {
+            mMemoryCache.release(bitmap);
+        }
+    }
+
+    /**
+     * 只从缓存获取
+     * <p>
+     * 磁盘缓存命中时会放入内存缓存.
+     *
+     * @return 缓存的图片, 两级缓存都没有时返回null
+     */
+    public Bitmap loadCached(ImageSource source, int viewWidth, int viewHeight, float maxScale) {
+        String key = BitmapMemoryCache.keyOf(source, viewWidth, viewHeight, maxScale);
+        Bitmap bitmap = mMemoryCache.getAndAcquire(key);
+        if (bitmap == null) {
+            bitmap = mDiskCache.get(diskKeyOf(source, key), mBitmapPool);
+            if (bitmap != null) {
+                //和decode一样先标记使用再放入,放入时马上被淘汰也不会还给对象池
+                mMemoryCache.acquire(bitmap);
+                mMemoryCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 只从内存缓存获取,可以在主线程调用
+     *
+     * @return 缓存的图片, 没有返回null
+     */
+    public Bitmap loadFromMemory(ImageSource source, int viewWidth, int viewHeight, float maxScale) {
+        return mMemoryCache.getAndAcquire(BitmapMemoryCache.keyOf(source, viewWidth, viewHeight, maxScale));
+    }
+
+    /**
+     * 从内存缓存获取同一张图按任意尺寸解码的结果中最大的一个,可以在主线程调用
+     *
+     * @return 缓存的图片, 没有返回null
+     * @see BitmapMemoryCache#getLargestOf(ImageSource)
+     */
+    public Bitmap loadPreviewFromMemory(ImageSource source) {
+        return mMemoryCache.getLargestOfAndAcquire(source);
+    }
+
+    /**
+     * 解码并写入缓存
+     *
+     * @param bounds 已经读取过的图片尺寸
+     * @return 解码结果, 失败返回null
+     * @see SampledBitmapDecoder#decodeBounds(Context, ImageSource)
+     */
+    public Bitmap decode(ImageSource source, BitmapFactory.Options bounds, int viewWidth, int viewHeight, float maxScale) throws IOException {
+        float targetScale = SampledBitmapDecoder.calculateTargetScale(bounds.outWidth, bounds.outHeight, viewWidth, viewHeight, maxScale);
+        Bitmap bitmap = SampledBitmapDecoder.decodeScaled(mContext, source, bounds, targetScale, mBitmapPool);
+        if (bitmap != null) {
+            String key = BitmapMemoryCache.keyOf(source, viewWidth, viewHeight, maxScale);
+            mMemoryCache.acquire(bitmap);
+            mMemoryCache.put(key, bitmap);
+            mDiskCache.put(diskKeyOf(source, key), bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 生成磁盘缓存key,在内存缓存key后加上来源内容的版本
+     * <p>
+     * 磁盘缓存在进程重启后仍然有效,文件内容变化后需要换一个key.
+     *
+     * @see ImageSource#getVersion()
+     */
+    private static String diskKeyOf(ImageSource source, String key) {
+        String version = source.getVersion();
+        return version.length() == 0 ? key : key + "#" + version;
+    }
+
+    /**
+     * 获取按控件尺寸解码的图片
+     *
+     * @return 图片, 解码失败返回null
+     */
+    public Bitmap load(ImageSource source, int viewWidth, int viewHeight, float maxScale) throws IOException {
+        Bitmap bitmap = loadCached(source, viewWidth, viewHeight, maxScale);
+        if (bitmap == null) {
+            BitmapFactory.Options bounds = SampledBitmapDecoder.decodeBounds(mContext, source);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+            bitmap = decode(source, bounds, viewWidth, viewHeight, maxScale);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取一张可以马上显示的预览图
+     * <p>
+     * 优先使用内存缓存里同一张图的任意尺寸结果,比如列表页的缩略图.
+     * 没有时按控件尺寸的1/{@link #PREVIEW_DIVISOR}解码,大采样率的解码比完整解码快得多.
+     *
+     * @return 预览图, 失败返回null
+     */
+    public Bitmap loadPreview(ImageSource source, int viewWidth, int viewHeight) {
+        Bitmap bitmap = loadPreviewFromMemory(source);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        try {
+            return load(source, Math.max(1, viewWidth / PREVIEW_DIVISOR), Math.max(1, viewHeight / PREVIEW_DIVISOR), 1f);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 在后台线程获取预览图
+     * <p>
+     * 和完整尺寸的加载一样以最高优先级提交,先提交的先执行.
+     * 只回调{@link LoadCallback#onBitmapLoaded(Bitmap)}或者{@link LoadCallback#onLoadFailed(Exception)}.
+     *
+     * @see #loadPreview(ImageSource, int, int)
+     */
+    public void loadPreviewAsync(final ImageSource source, final int viewWidth, final int viewHeight, final LoadCallback callback) {
+        mScheduler.submit(new DecodeScheduler.Task(DecodeScheduler.PRIORITY_HIGHEST) {
+            @Override
+            protected void execute() {
+                Bitmap bitmap = loadPreview(source, viewWidth, viewHeight);
+                if (bitmap != null) {
+                    postBitmap(callback, bitmap);
+                } else {
+                    postFailed(callback, new IOException("preview failed: " + source));
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程获取按控件尺寸解码的图片
+     * <p>
+     * 最大放大时需要的分辨率超过画布限制的大图不解码,而是创建区域解码器用于分块显示.
+     * 以最高优先级提交给{@link DecodeScheduler},结果在主线程回调.
+     *
+     * @see SampledBitmapDecoder#needsTiling(int, int, int, int, float)
+     */
+    public void loadAsync(final ImageSource source, final int viewWidth, final int viewHeight, final float maxScale, final LoadCallback callback) {
+        mScheduler.submit(new DecodeScheduler.Task(DecodeScheduler.PRIORITY_HIGHEST) {
+            @Override
+            protected void execute() {
+                try {
+                    Bitmap bitmap = loadCached(source, viewWidth, viewHeight, maxScale);
+                    if (bitmap == null) {
+                        BitmapFactory.Options bounds = SampledBitmapDecoder.decodeBounds(mContext, source);
+                        if (SampledBitmapDecoder.needsTiling(bounds.outWidth, bounds.outHeight, viewWidth, viewHeight, maxScale)) {
+                            postRegionDecoder(callback, source.newRegionDecoder(mContext));
+                            return;
+                        }
+                        if (bounds.outWidth > 0 && bounds.outHeight > 0) {
+                            bitmap = decode(source, bounds, viewWidth, viewHeight, maxScale);
+                        }
+                    }
+                    if (bitmap != null) {
+                        postBitmap(callback, bitmap);
+                    } else {
+                        postFailed(callback, new IOException("decode failed: " + source));
+                    }
+                } catch (IOException e) {
+                    postFailed(callback, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程获取屏幕分辨率的图片,放大后的细节交给分块显示
+     * <p>
+     * 用于同时存在多个页面的多图浏览,每页的整图只按控件尺寸解码,不乘最大放大比例.
+     * 原图比控件大,放大后还有更多细节时创建区域解码器,底图同样是控件尺寸,图块在放大时按需解码.
+     * 不支持区域解码的格式退回到控件尺寸的整图.
+     *
+     * @see #loadAsync(ImageSource, int, int, float, LoadCallback)
+     */
+    public void loadScreenAsync(final ImageSource source, final int viewWidth, final int viewHeight, final LoadCallback callback) {
+        mScheduler.submit(new DecodeScheduler.Task(DecodeScheduler.PRIORITY_HIGHEST) {
+            @Override
+            protected void execute() {
+                try {
+                    Bitmap bitmap = loadCached(source, viewWidth, viewHeight, 1f);
+                    if (bitmap == null) {
+                        BitmapFactory.Options bounds = SampledBitmapDecoder.decodeBounds(mContext, source);
+                        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                            postFailed(callback, new IOException("decode failed: " + source));
+                            return;
+                        }
+                        //fit center时原图被缩小显示,放大后能看到更多细节
+                        if (bounds.outWidth > viewWidth || bounds.outHeight > viewHeight) {
+                            try {
+                                postRegionDecoder(callback, source.newRegionDecoder(mContext));
+                                return;
+                            } catch (IOException e) {
+                                //格式不支持区域解码
+                            }
+                        }
+                        bitmap = decode(source, bounds, viewWidth, viewHeight, 1f);
+                    }
+                    if (bitmap != null) {
+                        postBitmap(callback, bitmap);
+                    } else {
+                        postFailed(callback, new IOException("decode failed: " + source));
+                    }
+                } catch (IOException e) {
+                    postFailed(callback, e);
+                }
+            }
+        });
+    }
+
+    private void postBitmap(final LoadCallback callback, final Bitmap bitmap) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onBitmapLoaded(bitmap);
+            }
+        });
+    }
+
+    private void postRegionDecoder(final LoadCallback callback, final BitmapRegionDecoder decoder) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRegionDecoderLoaded(decoder);
+            }
+        });
+    }
+
+    private void postFailed(final LoadCallback callback, final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLoadFailed(e);
+            }
+        });
+    }
+
+    /**
+     * 后台加载结果的回调,都在主线程执行
+     */
+    public interface LoadCallback {
+
+        /**
+         * 加载完成
+         *
+         * @param bitmap 已经标记为使用中的图片,不再显示时需要release
+         */
+        void onBitmapLoaded(Bitmap bitmap);
+
+        /**
+         * 图片太大,需要分块显示
+         *
+         * @param decoder 区域解码器
+         */
+        void onRegionDecoderLoaded(BitmapRegionDecoder decoder);
+
+        /**
+         * 加载失败
+         */
+        void onLoadFailed(Exception e);
+    }
+}
@@ -0,0 +1,138 @@
+package com.spx.spotimageview;
+
+import android.content.Context;
+import android.graphics.BitmapRegionDecoder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 图片来源
+ * <p>
+ * 只描述从哪里读取图片,不持有解码结果,可以随意传递和比较.
+ * 每个来源对应一个字符串key,可以通过{@link #fromKey(String)}还原.
+ */
+public class ImageSource {
+
+    private static final String SCHEME_RESOURCE = "res:";
+    private static final String SCHEME_FILE = "file:";
+
+    /**
+     * 来源的唯一标识
+     */
+    private final String mKey;
+
+    private ImageSource(String key) {
+        mKey = key;
+    }
+
+    /**
+     * 资源文件中的图片,按原始文件读取,不做资源目录的密度缩放
+     *
+     * @param resId drawable或raw资源id
+     */
+    public static ImageSource fromResource(int resId) {
+        return new ImageSource(SCHEME_RESOURCE + resId);
+    }
+
+    /**
+     * 本地文件中的图片
+     *
+     * @param path 文件绝对路径
+     */
+    public static ImageSource fromFile(String path) {
+        return new ImageSource(SCHEME_FILE + path);
+    }
+
+    /**
+     * 根据key还原来源
+     *
+     * @param key {@link #getKey()}的返回值
+     * @return 来源, 不能识别时返回null
+     */
+    public static ImageSource fromKey(String key) {
+        if (key == null) {
+            return null;
+        }
+        if (key.startsWith(SCHEME_RESOURCE)) {
+            try {
+                Integer.parseInt(key.substring(SCHEME_RESOURCE.length()));
+                return new ImageSource(key);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (key.startsWith(SCHEME_FILE) && key.length() > SCHEME_FILE.length()) {
+            return new ImageSource(key);
+        }
+        return null;
+    }
+
+    /**
+     * 获取来源的唯一标识
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * 获取来源内容的版本,内容变化后版本不同
+     * <p>
+     * 文件为修改时间和长度,文件被编辑或者替换后旧的磁盘缓存不再命中.
+     * 资源随应用版本变化,磁盘缓存已经按版本号分目录,返回空字符串.
+     */
+    public String getVersion() {
+        if (mKey.startsWith(SCHEME_FILE)) {
+            File file = new File(mKey.substring(SCHEME_FILE.length()));
+            return file.lastModified() + "-" + file.length();
+        }
+        return "";
+    }
+
+    /**
+     * 打开图片的原始数据流,用完需要调用者关闭
+     */
+    public InputStream open(Context context) throws IOException {
+        if (mKey.startsWith(SCHEME_RESOURCE)) {
+            int resId = Integer.parseInt(mKey.substring(SCHEME_RESOURCE.length()));
+            return context.getResources().openRawResource(resId);
+        } else {
+            return new FileInputStream(mKey.substring(SCHEME_FILE.length()));
+        }
+    }
+
+    /**
+     * 创建这个来源的区域解码器
+     *
+     * @see PinchImageView#setImageRegionDecoder(BitmapRegionDecoder)
+     */
+    public BitmapRegionDecoder newRegionDecoder(Context context) throws IOException {
+        //文件直接按路径打开,避免把整个文件读进内存
+        if (mKey.startsWith(SCHEME_FILE)) {
+            return BitmapRegionDecoder.newInstance(mKey.substring(SCHEME_FILE.length()), false);
+        }
+        InputStream inputStream = open(context);
+        try {
+            return BitmapRegionDecoder.newInstance(inputStream, false);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ImageSource && mKey.equals(((ImageSource) o).mKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return mKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mKey;
+    }
+}
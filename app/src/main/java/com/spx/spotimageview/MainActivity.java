@@ -1,39 +1,132 @@
 package com.spx.spotimageview;
 
-import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
+    /**
+     * 演示用图集的图片数量
+     */
+    private static final int DEMO_ALBUM_SIZE = 20;
+
+    /**
+     * 当前显示的缩略图,页面销毁时释放
+     */
+    private Bitmap thumbnail;
+
+    /**
+     * 页面已经销毁,之后到达的加载结果直接释放
+     */
+    private boolean destroyed;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
         final ImageView imageView = (ImageView) findViewById(R.id.imageview);
-        imageView.setImageResource(R.drawable.koala);
+        final ImageSource source = ImageSource.fromResource(R.drawable.koala);
+        //等控件布局完成,按控件尺寸从共用的内存缓存获取
+        imageView.post(new Runnable() {
+            @Override
+            public void run() {
+                loadThumbnail(imageView, source);
+            }
+        });
 
         imageView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Drawable drawable = imageView.getDrawable();
-                if (drawable != null && drawable instanceof BitmapDrawable) {
-                    BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                    Bitmap bitmap = bitmapDrawable.getBitmap();
-                    Intent intent = new Intent(MainActivity.this, SpotImageActivity.class);
-                    ((TApplication)getApplication()).setSpotImageBitmap(bitmap);
-                    startActivity(intent);
+                long clickTime = SystemClock.uptimeMillis();
+                //只传递图片来源和缩略图位置,由查看页按自己的尺寸解码
+                int[] location = new int[2];
+                v.getLocationOnScreen(location);
+                Rect fromRect = new Rect(location[0], location[1], location[0] + v.getWidth(), location[1] + v.getHeight());
+                SpotImageActivity.start(MainActivity.this, source, fromRect, clickTime);
+
+            }
+        });
+
+        //长按打开多图浏览,演示用的图集只有这一张图
+        imageView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                List<ImageSource> album = new ArrayList<ImageSource>();
+                for (int i = 0; i < DEMO_ALBUM_SIZE; i++) {
+                    album.add(source);
+                }
+                SpotGalleryActivity.start(MainActivity.this, album, 0);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 按控件尺寸显示缩略图,结果放入共用的缓存
+     * <p>
+     * 主线程只查内存缓存,磁盘缓存和解码都在后台,没有命中时先显示原始资源.
+     */
+    private void loadThumbnail(final ImageView imageView, final ImageSource source) {
+        //高度是wrap_content,按屏幕高度限制
+        int width = imageView.getWidth();
+        int height = getResources().getDisplayMetrics().heightPixels;
+        if (width <= 0 || height <= 0) {
+            imageView.setImageResource(R.drawable.koala);
+            return;
+        }
+        final ImageLoader loader = ((TApplication) getApplication()).getImageLoader();
+        Bitmap cached = loader.loadFromMemory(source, width, height, 1f);
+        if (cached != null) {
+            thumbnail = cached;
+            imageView.setImageBitmap(cached);
+            return;
+        }
+        imageView.setImageResource(R.drawable.koala);
+        loader.loadAsync(source, width, height, 1f, new ImageLoader.LoadCallback() {
+            @Override
+            public void onBitmapLoaded(Bitmap bitmap) {
+                if (destroyed) {
+                    loader.release(bitmap);
+                    return;
                 }
+                thumbnail = bitmap;
+                imageView.setImageBitmap(bitmap);
+            }
 
+            @Override
+            public void onRegionDecoderLoaded(BitmapRegionDecoder decoder) {
+                //缩略图不需要放大,保留原始资源
+                decoder.recycle();
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                Log.e(TAG, "loadThumbnail: " + source, e);
             }
         });
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        if (thumbnail != null) {
+            ((TApplication) getApplication()).getImageLoader().release(thumbnail);
+            thumbnail = null;
+        }
+    }
 }
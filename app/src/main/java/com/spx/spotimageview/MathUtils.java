@@ -0,0 +1,371 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+/**
+ * 数学计算工具类
+ * <p>
+ * 对象池和临时缓冲区都是线程安全的,后台线程也可以使用.
+ */
+public class MathUtils {
+
+    /**
+     * 矩阵对象池
+     */
+    private static MatrixPool mMatrixPool = new MatrixPool(16);
+
+    /**
+     * 获取矩阵对象
+     */
+    public static Matrix matrixTake() {
+        return mMatrixPool.take();
+    }
+
+    /**
+     * 获取某个矩阵的copy
+     */
+    public static Matrix matrixTake(Matrix matrix) {
+        Matrix result = mMatrixPool.take();
+        if (matrix != null) {
+            result.set(matrix);
+        }
+        return result;
+    }
+
+    /**
+     * 归还矩阵对象
+     */
+    public static void matrixGiven(Matrix matrix) {
+        mMatrixPool.given(matrix);
+    }
+
+    /**
+     * 矩形对象池
+     */
+    private static RectFPool mRectFPool = new RectFPool(16);
+
+    /**
+     * 获取矩形对象
+     */
+    public static RectF rectFTake() {
+        return mRectFPool.take();
+    }
+
+    /**
+     * 按照指定值获取矩形对象
+     */
+    public static RectF rectFTake(float left, float top, float right, float bottom) {
+        RectF result = mRectFPool.take();
+        result.set(left, top, right, bottom);
+        return result;
+    }
+
+    /**
+     * 获取某个矩形的副本
+     */
+    public static RectF rectFTake(RectF rectF) {
+        RectF result = mRectFPool.take();
+        if (rectF != null) {
+            result.set(rectF);
+        }
+        return result;
+    }
+
+    /**
+     * 归还矩形对象
+     */
+    public static void rectFGiven(RectF rectF) {
+        mRectFPool.given(rectF);
+    }
+
+    /**
+     * 点对象池
+     */
+    private static PointFPool mPointFPool = new PointFPool(16);
+
+    /**
+     * 按照指定值获取点对象
+     */
+    public static PointF pointFTake(float x, float y) {
+        PointF result = mPointFPool.take();
+        result.set(x, y);
+        return result;
+    }
+
+    /**
+     * 归还点对象
+     */
+    public static void pointFGiven(PointF pointF) {
+        mPointFPool.given(pointF);
+    }
+
+    /**
+     * 获取各个对象池的使用统计
+     * <p>
+     * 用于根据实际的借用,未命中和溢出次数调整对象池容量.
+     *
+     * @see ObjectsPool#toString()
+     */
+    public static String getPoolStats() {
+        return mMatrixPool + ", " + mRectFPool + ", " + mPointFPool;
+    }
+
+    /**
+     * 获取两点之间距离
+     *
+     * @param x1 点1
+     * @param y1 点1
+     * @param x2 点2
+     * @param y2 点2
+     * @return 距离
+     */
+    public static float getDistance(float x1, float y1, float x2, float y2) {
+        float x = x1 - x2;
+        float y = y1 - y2;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * 获取两点的中点
+     *
+     * @param x1 点1
+     * @param y1 点1
+     * @param x2 点2
+     * @param y2 点2
+     * @return float[]{x, y}
+     */
+    public static float[] getCenterPoint(float x1, float y1, float x2, float y2) {
+        return getCenterPoint(x1, y1, x2, y2, new float[2]);
+    }
+
+    /**
+     * 获取两点的中点,结果写入out
+     * <p>
+     * 不分配内存,用于每次触摸移动都要调用的地方.
+     *
+     * @param x1  点1
+     * @param y1  点1
+     * @param x2  点2
+     * @param y2  点2
+     * @param out 长度至少为2的数组,写入{x, y}
+     * @return out
+     */
+    public static float[] getCenterPoint(float x1, float y1, float x2, float y2, float[] out) {
+        out[0] = (x1 + x2) / 2f;
+        out[1] = (y1 + y2) / 2f;
+        return out;
+    }
+
+    /**
+     * 获取矩阵的缩放值
+     *
+     * @param matrix 要计算的矩阵
+     * @return float[]{scaleX, scaleY}
+     */
+    public static float[] getMatrixScale(Matrix matrix) {
+        return getMatrixScale(matrix, new float[2]);
+    }
+
+    /**
+     * 读取矩阵数值的缓冲区,每个线程一个
+     */
+    private static final ThreadLocal<float[]> sMatrixValues = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[9];
+        }
+    };
+
+    /**
+     * 获取矩阵的缩放值,结果写入out
+     * <p>
+     * 读取矩阵数值使用线程内复用的缓冲区,不分配内存.
+     *
+     * @param matrix 要计算的矩阵
+     * @param out    长度至少为2的数组,写入{scaleX, scaleY}
+     * @return out
+     */
+    public static float[] getMatrixScale(Matrix matrix, float[] out) {
+        if (matrix != null) {
+            float[] value = sMatrixValues.get();
+            matrix.getValues(value);
+            out[0] = value[Matrix.MSCALE_X];
+            out[1] = value[Matrix.MSCALE_Y];
+        } else {
+            out[0] = 0;
+            out[1] = 0;
+        }
+        return out;
+    }
+
+    /**
+     * 计算点除以矩阵的值
+     * <p>
+     * matrix.mapPoints(unknownPoint) -> point
+     * 已知point和matrix,求unknownPoint的值.
+     *
+     * @param point
+     * @param matrix
+     * @return unknownPoint
+     */
+    public static float[] inverseMatrixPoint(float[] point, Matrix matrix) {
+        return inverseMatrixPoint(point, matrix, new float[2]);
+    }
+
+    /**
+     * 计算点除以矩阵的值,结果写入out
+     * <p>
+     * 逆矩阵从对象池借用,不分配内存.
+     * out可以和point是同一个数组.
+     *
+     * @param point  已知的点
+     * @param matrix 已知的矩阵
+     * @param out    长度至少为2的数组,写入unknownPoint
+     * @return out
+     */
+    public static float[] inverseMatrixPoint(float[] point, Matrix matrix, float[] out) {
+        if (point != null && matrix != null) {
+            //计算matrix的逆矩阵
+            Matrix inverse = matrixTake();
+            matrix.invert(inverse);
+            //用逆矩阵变换point到out,out就是结果
+            inverse.mapPoints(out, point);
+            //清除临时变量
+            matrixGiven(inverse);
+        } else {
+            out[0] = 0;
+            out[1] = 0;
+        }
+        return out;
+    }
+
+    /**
+     * 把移动距离限制在可移动范围内
+     * <p>
+     * 图片小于控件的方向不能移动,否则移动后不能在控件内露出空白.
+     *
+     * @param bound         当前的图片方框
+     * @param displayWidth  控件宽度
+     * @param displayHeight 控件高度
+     * @param diff          移动距离,修正结果也写在这里
+     */
+    public static void limitScroll(RectF bound, float displayWidth, float displayHeight, PointF diff) {
+        float xDiff = diff.x;
+        float yDiff = diff.y;
+        //如果当前图片宽度小于控件宽度，则不能移动
+        if (bound.right - bound.left < displayWidth) {
+            xDiff = 0;
+            //如果图片左边在移动后超出控件左边
+        } else if (bound.left + xDiff > 0) {
+            //如果在移动之前是没超出的，计算应该移动的距离
+            if (bound.left < 0) {
+                xDiff = -bound.left;
+                //否则无法移动
+            } else {
+                xDiff = 0;
+            }
+            //如果图片右边在移动后超出控件右边
+        } else if (bound.right + xDiff < displayWidth) {
+            //如果在移动之前是没超出的，计算应该移动的距离
+            if (bound.right > displayWidth) {
+                xDiff = displayWidth - bound.right;
+                //否则无法移动
+            } else {
+                xDiff = 0;
+            }
+        }
+        //以下同理
+        if (bound.bottom - bound.top < displayHeight) {
+            yDiff = 0;
+        } else if (bound.top + yDiff > 0) {
+            if (bound.top < 0) {
+                yDiff = -bound.top;
+            } else {
+                yDiff = 0;
+            }
+        } else if (bound.bottom + yDiff < displayHeight) {
+            if (bound.bottom > displayHeight) {
+                yDiff = displayHeight - bound.bottom;
+            } else {
+                yDiff = 0;
+            }
+        }
+        diff.set(xDiff, yDiff);
+    }
+
+    /**
+     * 计算缩放结束时的缩放修正
+     * <p>
+     * 整体缩放比例超过最大比例时缩小到最大比例,第二层缩放小于1(比fit center状态还小)时放大到fit center.
+     * 第二层缩放大于1时也回到fit center,保持松手后图片回弹.
+     *
+     * @param currentScale 整体缩放比例
+     * @param outerScale   第二层缩放比例
+     * @param maxScale     最大缩放比例
+     * @return 需要额外乘上的缩放比例, 不需要修正时为1
+     */
+    public static float limitScale(float currentScale, float outerScale, float maxScale) {
+        float scalePost = 1f;
+        //如果整体缩放比例大于最大比例，进行缩放修正
+        if (currentScale > maxScale) {
+            scalePost = maxScale / currentScale;
+        }
+        //如果缩放修正后整体导致第二层缩放小于1（就是图片比fit center状态还小），重新修正缩放
+        if (outerScale * scalePost < 1f) {
+            scalePost = 1f / outerScale;
+        }
+
+        // 如果需要双手放大后, 保持图片不回弹变小, 需要注释掉下面的if语句
+        if (outerScale * scalePost > 1f) {
+            scalePost = 1f / outerScale;
+        }
+        return scalePost;
+    }
+
+    /**
+     * 计算让图片方框回到合法位置需要的移动距离
+     * <p>
+     * 比控件小的方向居中,比控件大的方向不能在边缘露出空白.
+     *
+     * @param bound         图片方框
+     * @param displayWidth  控件宽度
+     * @param displayHeight 控件高度
+     * @param post          移动距离,结果写在这里
+     */
+    public static void limitBound(RectF bound, float displayWidth, float displayHeight, PointF post) {
+        float postX = 0;
+        float postY = 0;
+        if (bound.right - bound.left < displayWidth) {
+            postX = displayWidth / 2f - (bound.right + bound.left) / 2f;
+        } else if (bound.left > 0) {
+            postX = -bound.left;
+        } else if (bound.right < displayWidth) {
+            postX = displayWidth - bound.right;
+        }
+        if (bound.bottom - bound.top < displayHeight) {
+            postY = displayHeight / 2f - (bound.bottom + bound.top) / 2f;
+        } else if (bound.top > 0) {
+            postY = -bound.top;
+        } else if (bound.bottom < displayHeight) {
+            postY = displayHeight - bound.bottom;
+        }
+        post.set(postX, postY);
+    }
+
+    /**
+     * 以某一点为中心缩放矩形
+     * <p>
+     * 和Matrix.postScale(scale, scale, px, py)之后mapRect结果相同,但只有浮点运算.
+     *
+     * @param rect  要缩放的矩形,结果也写在这里
+     * @param scale 缩放比例,大于0
+     * @param px    缩放中心
+     * @param py    缩放中心
+     */
+    public static void scaleRect(RectF rect, float scale, float px, float py) {
+        rect.set(px + (rect.left - px) * scale, py + (rect.top - py) * scale,
+                px + (rect.right - px) * scale, py + (rect.bottom - py) * scale);
+    }
+}
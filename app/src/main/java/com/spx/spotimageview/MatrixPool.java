@@ -0,0 +1,28 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+
+/**
+ * 矩阵对象池
+ */
+class MatrixPool extends ObjectsPool<Matrix> {
+
+    public MatrixPool(int size) {
+        super(size);
+    }
+
+    public MatrixPool(int size, int localCacheSize) {
+        super(size, localCacheSize);
+    }
+
+    @Override
+    protected Matrix newInstance() {
+        return new Matrix();
+    }
+
+    @Override
+    protected Matrix resetInstance(Matrix obj) {
+        obj.reset();
+        return obj;
+    }
+}
@@ -0,0 +1,95 @@
+package com.spx.spotimageview;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 把系统的内存警告分发给所有注册的缓存,对象池和控件
+ * <p>
+ * 系统的十几种警告合并成{@link Trimmable}里的三级:
+ * 刚开始紧张时只释放看不到的图块,进一步紧张时释放多余的缩小版本,
+ * 快要被杀掉时只保留正在显示的底图.
+ * 注册的对象只被弱引用,控件销毁后不注销也不会泄漏.
+ * <p>
+ * 只能在主线程使用.
+ *
+ * @see TApplication#onTrimMemory(int)
+ */
+public class MemoryTrimmer {
+
+    private static MemoryTrimmer sDefault;
+
+    private final Set<Trimmable> mTrimmables = Collections.newSetFromMap(new WeakHashMap<Trimmable, Boolean>());
+
+    /**
+     * 获取进程共用的实例
+     */
+    public static MemoryTrimmer getDefault() {
+        if (sDefault == null) {
+            sDefault = new MemoryTrimmer();
+        }
+        return sDefault;
+    }
+
+    public void register(Trimmable trimmable) {
+        mTrimmables.add(trimmable);
+    }
+
+    public void unregister(Trimmable trimmable) {
+        mTrimmables.remove(trimmable);
+    }
+
+    /**
+     * 处理{@link ComponentCallbacks2#onTrimMemory(int)}
+     *
+     * @param level 系统的警告级别
+     */
+    public void onTrimMemory(int level) {
+        int trimLevel = toTrimLevel(level);
+        if (trimLevel > 0) {
+            dispatch(trimLevel);
+        }
+    }
+
+    /**
+     * 处理{@link ComponentCallbacks2#onLowMemory()},按最高级别释放
+     */
+    public void onLowMemory() {
+        dispatch(Trimmable.TRIM_LEVEL_VISIBLE_ONLY);
+    }
+
+    /**
+     * 系统的警告级别转换成释放级别
+     * <p>
+     * 前台和后台的警告数值是交错的,分别判断.
+     *
+     * @return 释放级别, 不需要释放返回0
+     */
+    static int toTrimLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return Trimmable.TRIM_LEVEL_VISIBLE_ONLY;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return Trimmable.TRIM_LEVEL_PYRAMID;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return Trimmable.TRIM_LEVEL_OFFSCREEN;
+        }
+        return 0;
+    }
+
+    private void dispatch(int trimLevel) {
+        //回调中可能注销自己,先复制一份
+        List<Trimmable> trimmables = new ArrayList<Trimmable>(mTrimmables);
+        for (Trimmable trimmable : trimmables) {
+            trimmable.trimMemory(trimLevel);
+        }
+    }
+}
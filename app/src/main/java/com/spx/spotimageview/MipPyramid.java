@@ -0,0 +1,420 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 整图的多级缩小版本
+ * <p>
+ * 整图按最大放大比例解码,fit center时实际是缩小几倍显示的,直接绘制原图会读取大量纹素并产生锯齿.
+ * 这里在后台依次生成1/2,1/4,1/8...的缩小版本,绘制时按当前缩放比例选择纹素和屏幕像素最接近的一级.
+ * <p>
+ * 每一级由上一级2x2取平均得到.API 21以上按行分段用fork-join并行计算,以下在解码线程里顺序计算.
+ * 生成完一级就在主线程回调一次,之前的绘制继续使用原图.
+ * <p>
+ * 内存紧张时可以只保留最近一次绘制的一级,裁剪之后不再生成,需要时重新创建.
+ * 每级按{@link #STRIP_ROWS}行分段处理,停止时只需要等当前这一段结束.
+ *
+ * @see PinchImageView
+ */
+public class MipPyramid implements Trimmable {
+
+    /**
+     * 最小一级的短边不小于这个尺寸
+     */
+    private static final int MIN_LEVEL_SIZE = 256;
+
+    /**
+     * 最多生成的级数
+     */
+    private static final int MAX_LEVELS = 4;
+
+    /**
+     * 后台生成的优先级,排在所有图块之后
+     *
+     * @see TiledImage#calculatePriority(float, int)
+     */
+    private static final float BUILD_PRIORITY = 32f;
+
+    /**
+     * 每段处理的目标行数,控制每段读取原图像素的临时数组大小
+     */
+    private static final int STRIP_ROWS = 32;
+
+    /**
+     * 原图
+     */
+    private final Bitmap mSource;
+
+    /**
+     * 复用内存的对象池,可以为null
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * 每生成一级在主线程执行
+     */
+    private final Runnable mOnLevelReady;
+
+    /**
+     * 已经生成的各级,下标0为1/2,只在主线程访问
+     */
+    private final Bitmap[] mLevels;
+
+    private int mLevelCount;
+
+    /**
+     * 最近一次选中的一级,裁剪时保留
+     */
+    private Bitmap mLastSelected;
+
+    /**
+     * 保护原图和已生成各级的读取
+     * <p>
+     * 每段缩小持有读锁,并行的各段互不阻塞.停止时获取写锁,只等待正在处理的那一段结束,不等待整级.
+     */
+    private final ReadWriteLock mSourceLock = new ReentrantReadWriteLock();
+
+    /**
+     * 已经释放或裁剪,不再生成.每段开始前检查
+     */
+    private volatile boolean mReleased;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private DecodeScheduler.Task mTask;
+
+    /**
+     * 创建多级缩小版本,需要调用{@link #build()}开始生成
+     *
+     * @param source       原图,生成期间不能被回收
+     * @param pool         复用内存的对象池,可以为null
+     * @param onLevelReady 每生成一级在主线程执行
+     */
+    public MipPyramid(Bitmap source, BitmapPool pool, Runnable onLevelReady) {
+        mSource = source;
+        mPool = pool;
+        mOnLevelReady = onLevelReady;
+        mLevels = new Bitmap[calculateLevelCount(source.getWidth(), source.getHeight())];
+    }
+
+    /**
+     * 计算需要的级数,缩小到短边不小于MIN_LEVEL_SIZE为止
+     */
+    static int calculateLevelCount(int width, int height) {
+        int count = 0;
+        int size = Math.min(width, height);
+        while (count < MAX_LEVELS && size / 2 >= MIN_LEVEL_SIZE) {
+            size /= 2;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 原图是否可以生成多级缩小版本
+     * <p>
+     * 硬件bitmap不能读取像素,太小的图不需要.
+     */
+    public static boolean isSupported(Bitmap bitmap) {
+        return bitmap != null && !bitmap.isRecycled() && !BitmapConfigPolicy.isHardware(bitmap)
+                && calculateLevelCount(bitmap.getWidth(), bitmap.getHeight()) > 0;
+    }
+
+    /**
+     * 提交到解码线程开始生成
+     */
+    public void build() {
+        if (mLevels.length == 0 || mTask != null) {
+            return;
+        }
+        mTask = new DecodeScheduler.Task(BUILD_PRIORITY) {
+            @Override
+            protected void execute() {
+                buildLevels();
+            }
+        };
+        DecodeScheduler.getDefault().submit(mTask);
+    }
+
+    /**
+     * 选择最适合当前缩放比例的一级
+     * <p>
+     * 选择缩小2^n倍后显示比例仍然不小于0.5的最大一级,
+     * 这样每个屏幕像素最多对应2x2个纹素,双线性过滤不会产生锯齿.
+     *
+     * @param scale 原图到屏幕的缩放比例
+     * @return 选中的一级, 应该使用原图时返回null
+     */
+    public Bitmap selectLevel(float scale) {
+        mLastSelected = null;
+        if (mLevelCount == 0 || scale <= 0 || scale >= 0.5f) {
+            return null;
+        }
+        int level = (int) Math.floor(Math.log(1 / scale) / Math.log(2));
+        level = Math.min(level, mLevelCount);
+        //裁剪后缺少的级别用更清晰的一级代替
+        for (; level > 0; level--) {
+            if (mLevels[level - 1] != null) {
+                mLastSelected = mLevels[level - 1];
+                break;
+            }
+        }
+        return mLastSelected;
+    }
+
+    /**
+     * 是否已经被裁剪,裁剪后缺少的级别不会再生成
+     */
+    public boolean isTrimmed() {
+        return mReleased;
+    }
+
+    /**
+     * 按级别释放
+     * <p>
+     * {@link #TRIM_LEVEL_PYRAMID}只保留最近一次绘制的一级,{@link #TRIM_LEVEL_VISIBLE_ONLY}全部释放,
+     * 绘制退回到原图.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (level < TRIM_LEVEL_PYRAMID) {
+            return;
+        }
+        stop();
+        Bitmap keep = level < TRIM_LEVEL_VISIBLE_ONLY ? mLastSelected : null;
+        for (int i = 0; i < mLevelCount; i++) {
+            if (mLevels[i] != keep) {
+                givenBitmap(mLevels[i]);
+                mLevels[i] = null;
+            }
+        }
+        mLastSelected = keep;
+    }
+
+    /**
+     * 停止生成并释放所有级
+     * <p>
+     * 返回后不会再读取原图,原图可以被回收或复用.
+     */
+    public void recycle() {
+        stop();
+        for (int i = 0; i < mLevelCount; i++) {
+            givenBitmap(mLevels[i]);
+            mLevels[i] = null;
+        }
+        mLevelCount = 0;
+        mLastSelected = null;
+    }
+
+    /**
+     * 停止生成,返回后不会再读取原图
+     * <p>
+     * 在主线程调用,最多等待正在处理的一段{@link #STRIP_ROWS}行.
+     */
+    private void stop() {
+        mReleased = true;
+        if (mTask != null) {
+            DecodeScheduler.getDefault().cancel(mTask);
+        }
+        //等待已经开始的段结束,之后的段看到mReleased直接跳过
+        mSourceLock.writeLock().lock();
+        mSourceLock.writeLock().unlock();
+    }
+
+    /**
+     * 在解码线程依次生成每一级
+     */
+    private void buildLevels() {
+        Bitmap previous = mSource;
+        for (int i = 0; i < mLevels.length; i++) {
+            Bitmap.Config config = mSource.getConfig() != null ? mSource.getConfig() : Bitmap.Config.ARGB_8888;
+            if (mReleased) {
+                return;
+            }
+            Bitmap level = BitmapPool.obtain(mPool, Math.max(1, previous.getWidth() / 2), Math.max(1, previous.getHeight() / 2), config);
+            if (!downscale(previous, level)) {
+                //停止时生成了一半的这一级不再使用
+                givenBitmap(level);
+                return;
+            }
+            postLevel(i, level);
+            previous = level;
+        }
+    }
+
+    /**
+     * 在主线程保存生成好的一级
+     */
+    private void postLevel(final int index, final Bitmap level) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                //释放之后才到达的结果直接还回去
+                if (mReleased) {
+                    givenBitmap(level);
+                    return;
+                }
+                mLevels[index] = level;
+                mLevelCount = index + 1;
+                mOnLevelReady.run();
+            }
+        });
+    }
+
+    private void givenBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        if (mPool != null) {
+            mPool.given(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 把src按2x2取平均缩小到dst
+     * <p>
+     * dst的尺寸为src的一半.
+     *
+     * @return 停止时返回false, dst的内容不完整
+     */
+    private boolean downscale(Bitmap src, Bitmap dst) {
+        int rows = dst.getHeight();
+        if (Build.VERSION.SDK_INT >= 21 && rows > STRIP_ROWS) {
+            ParallelDownscale.invoke(this, src, dst);
+        } else {
+            for (int row = 0; row < rows; row += STRIP_ROWS) {
+                if (!downscaleStrip(src, dst, row, Math.min(rows, row + STRIP_ROWS))) {
+                    return false;
+                }
+            }
+        }
+        return !mReleased;
+    }
+
+    /**
+     * 持有读锁缩小一段,已经停止时跳过
+     *
+     * @return 是否处理了这一段
+     */
+    private boolean downscaleStrip(Bitmap src, Bitmap dst, int startRow, int endRow) {
+        if (mReleased) {
+            return false;
+        }
+        mSourceLock.readLock().lock();
+        try {
+            //等锁期间可能已经停止
+            if (mReleased) {
+                return false;
+            }
+            downscaleRows(src, dst, startRow, endRow);
+            return true;
+        } finally {
+            mSourceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 缩小dst的[startRow, endRow)行
+     * <p>
+     * 不同的行段之间互不影响,可以并行执行.
+     */
+    static void downscaleRows(Bitmap src, Bitmap dst, int startRow, int endRow) {
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int dstWidth = dst.getWidth();
+        int rows = endRow - startRow;
+        //src中对应的行,最后一行可能因为高度为奇数只有一行
+        int srcStart = startRow * 2;
+        int srcRows = Math.min(rows * 2, srcHeight - srcStart);
+        int[] in = new int[srcWidth * srcRows];
+        int[] out = new int[dstWidth * rows];
+        src.getPixels(in, 0, srcWidth, 0, srcStart, srcWidth, srcRows);
+        for (int y = 0; y < rows; y++) {
+            int top = y * 2 * srcWidth;
+            int bottom = y * 2 + 1 < srcRows ? top + srcWidth : top;
+            for (int x = 0; x < dstWidth; x++) {
+                int left = x * 2;
+                int right = left + 1 < srcWidth ? left + 1 : left;
+                out[y * dstWidth + x] = average(in[top + left], in[top + right], in[bottom + left], in[bottom + right]);
+            }
+        }
+        dst.setPixels(out, 0, dstWidth, 0, startRow, dstWidth, rows);
+    }
+
+    /**
+     * 四个ARGB颜色分通道取平均
+     */
+    private static int average(int c0, int c1, int c2, int c3) {
+        //两个字节一组同时相加,每组之间留了8位不会溢出
+        long ag = ((c0 >>> 8) & 0xff00ffL) + ((c1 >>> 8) & 0xff00ffL) + ((c2 >>> 8) & 0xff00ffL) + ((c3 >>> 8) & 0xff00ffL);
+        long rb = (c0 & 0xff00ffL) + (c1 & 0xff00ffL) + (c2 & 0xff00ffL) + (c3 & 0xff00ffL);
+        //加2做四舍五入
+        ag = ((ag + 0x20002L) >>> 2) & 0xff00ffL;
+        rb = ((rb + 0x20002L) >>> 2) & 0xff00ffL;
+        return (int) ((ag << 8) | rb);
+    }
+
+    /**
+     * fork-join并行缩小
+     * <p>
+     * 单独放在一个类里,API 21以下不会加载ForkJoinPool.
+     */
+    private static class ParallelDownscale extends RecursiveAction {
+
+        private static ForkJoinPool sPool;
+
+        private final MipPyramid mOwner;
+
+        private final Bitmap mSrc;
+
+        private final Bitmap mDst;
+
+        private final int mStartRow;
+
+        private final int mEndRow;
+
+        ParallelDownscale(MipPyramid owner, Bitmap src, Bitmap dst, int startRow, int endRow) {
+            mOwner = owner;
+            mSrc = src;
+            mDst = dst;
+            mStartRow = startRow;
+            mEndRow = endRow;
+        }
+
+        static void invoke(MipPyramid owner, Bitmap src, Bitmap dst) {
+            obtainPool().invoke(new ParallelDownscale(owner, src, dst, 0, dst.getHeight()));
+        }
+
+        private static synchronized ForkJoinPool obtainPool() {
+            if (sPool == null) {
+                sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            }
+            return sPool;
+        }
+
+        @Override
+        protected void compute() {
+            //停止后不再拆分,剩下的段都直接跳过
+            if (mOwner.mReleased) {
+                return;
+            }
+            if (mEndRow - mStartRow <= STRIP_ROWS) {
+                mOwner.downscaleStrip(mSrc, mDst, mStartRow, mEndRow);
+                return;
+            }
+            int middle = (mStartRow + mEndRow) >>> 1;
+            invokeAll(new ParallelDownscale(mOwner, mSrc, mDst, mStartRow, middle),
+                    new ParallelDownscale(mOwner, mSrc, mDst, middle, mEndRow));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.spx.spotimageview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对象池
+ * <p>
+ * 防止频繁new对象产生内存抖动.
+ * 由于对象池最大长度限制,如果吞度量超过对象池容量,仍然会发生抖动.
+ * 此时需要增大对象池容量,但是会占用更多内存.
+ * <p>
+ * 线程安全,可以在后台解码线程里使用.
+ * 共享部分是加锁的定长环形数组,归还时不产生链表节点.
+ * 每个线程另外有一个很小的本地缓存,借出和归还先走本地缓存,不需要加锁.
+ * 借用次数,未命中次数,归还时池满丢弃的次数可以用来调整容量.
+ *
+ * @param <T> 对象池容纳的对象类型
+ */
+abstract class ObjectsPool<T> {
+
+    /**
+     * 默认的线程本地缓存容量
+     */
+    public static final int DEFAULT_LOCAL_CACHE_SIZE = 4;
+
+    /**
+     * 对象池的最大容量
+     */
+    private final int mSize;
+
+    /**
+     * 对象池队列,环形数组
+     */
+    private final Object[] mRing;
+
+    /**
+     * 队首位置和队列长度,由this保护
+     */
+    private int mHead;
+    private int mCount;
+
+    /**
+     * 线程本地缓存,容量为0时为null
+     */
+    private final ThreadLocal<LocalCache> mLocalCache;
+
+    /**
+     * 借用次数
+     */
+    private final AtomicLong mTakeCount = new AtomicLong();
+
+    /**
+     * 池内没有对象,新创建的次数
+     */
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * 归还时池已满,对象被丢弃的次数
+     */
+    private final AtomicLong mOverflowCount = new AtomicLong();
+
+    /**
+     * 创建一个对象池
+     *
+     * @param size 对象池最大容量
+     */
+    public ObjectsPool(int size) {
+        this(size, DEFAULT_LOCAL_CACHE_SIZE);
+    }
+
+    /**
+     * 创建一个对象池
+     *
+     * @param size           对象池最大容量,不包括线程本地缓存
+     * @param localCacheSize 每个线程本地缓存的容量,0表示不使用
+     */
+    public ObjectsPool(int size, final int localCacheSize) {
+        mSize = size;
+        mRing = new Object[size];
+        if (localCacheSize > 0) {
+            mLocalCache = new ThreadLocal<LocalCache>() {
+                @Override
+                protected LocalCache initialValue() {
+                    return new LocalCache(localCacheSize);
+                }
+            };
+        } else {
+            mLocalCache = null;
+        }
+    }
+
+    /**
+     * 获取一个空闲的对象
+     * <p>
+     * 如果对象池为空,则对象池自己会new一个返回.
+     * 如果对象池内有对象,则取一个已存在的返回.
+     * take出来的对象用完要记得调用given归还.
+     * 如果不归还,让然会发生内存抖动,但不会引起泄漏.
+     *
+     * @return 可用的对象
+     * @see #given(Object)
+     */
+    @SuppressWarnings("unchecked")
+    public T take() {
+        mTakeCount.incrementAndGet();
+        //先从本线程的缓存里拿
+        if (mLocalCache != null) {
+            LocalCache cache = mLocalCache.get();
+            if (cache.mCount > 0) {
+                Object obj = cache.mItems[--cache.mCount];
+                cache.mItems[cache.mCount] = null;
+                return resetInstance((T) obj);
+            }
+        }
+        Object obj = null;
+        synchronized (this) {
+            if (mCount > 0) {
+                //对象池里有就从顶端拿出来一个返回
+                obj = mRing[mHead];
+                mRing[mHead] = null;
+                mHead = (mHead + 1) % mSize;
+                mCount--;
+            }
+        }
+        if (obj == null) {
+            //如果池内为空就创建一个
+            mMissCount.incrementAndGet();
+            return newInstance();
+        }
+        return resetInstance((T) obj);
+    }
+
+    /**
+     * 归还对象池内申请的对象
+     * <p>
+     * 如果归还的对象数量超过对象池容量,那么归还的对象就会被丢弃.
+     *
+     * @param obj 归还的对象
+     * @see #take()
+     */
+    public void given(T obj) {
+        if (obj == null) {
+            return;
+        }
+        //本线程的缓存还有空位就放在本地
+        if (mLocalCache != null) {
+            LocalCache cache = mLocalCache.get();
+            if (cache.mCount < cache.mItems.length) {
+                cache.mItems[cache.mCount++] = obj;
+                return;
+            }
+        }
+        synchronized (this) {
+            //如果对象池还有空位子就归还对象
+            if (mCount < mSize) {
+                mRing[(mHead + mCount) % mSize] = obj;
+                mCount++;
+                return;
+            }
+        }
+        mOverflowCount.incrementAndGet();
+    }
+
+    /**
+     * 获取借用次数
+     */
+    public long getTakeCount() {
+        return mTakeCount.get();
+    }
+
+    /**
+     * 获取池内没有对象,只能新创建的次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 获取归还时池已满,对象被丢弃的次数
+     * <p>
+     * 持续增长说明同时借出的对象数超过了容量,需要增大容量.
+     */
+    public long getOverflowCount() {
+        return mOverflowCount.get();
+    }
+
+    @Override
+    public String toString() {
+        int count;
+        synchronized (this) {
+            count = mCount;
+        }
+        return getClass().getSimpleName() + "[size=" + count + ",maxSize=" + mSize
+                + ",takes=" + getTakeCount() + ",misses=" + getMissCount() + ",overflows=" + getOverflowCount() + "]";
+    }
+
+    /**
+     * 实例化对象
+     *
+     * @return 创建的对象
+     */
+    abstract protected T newInstance();
+
+    /**
+     * 重置对象
+     * <p>
+     * 把对象数据清空到就像刚创建的一样.
+     *
+     * @param obj 需要被重置的对象
+     * @return 被重置之后的对象
+     */
+    abstract protected T resetInstance(T obj);
+
+    /**
+     * 线程本地缓存,后进先出
+     */
+    private static class LocalCache {
+
+        final Object[] mItems;
+
+        int mCount;
+
+        LocalCache(int size) {
+            mItems = new Object[size];
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.spx.spotimageview;
+
+import android.os.SystemClock;
+
+/**
+ * 一次打开查看页的耗时记录
+ * <p>
+ * 依次记录点击缩略图,发出intent,查看页创建,第一次绘制出图片,淡入动画结束几个时刻,
+ * 时间都取{@link SystemClock#uptimeMillis()},和触摸事件的时间基准相同.
+ * 淡入结束后这次记录完成,可以通过{@link #getLatest()}或者{@link #setListener(Listener)}读取,
+ * 按机型统计打开耗时.
+ * <p>
+ * 只在主线程使用.
+ *
+ * @see SpotImageActivity
+ */
+public class OpenTrace {
+
+    /**
+     * 点击缩略图
+     */
+    public static final int MARK_CLICK = 0;
+
+    /**
+     * 发出打开查看页的intent
+     */
+    public static final int MARK_INTENT = 1;
+
+    /**
+     * 查看页onCreate
+     */
+    public static final int MARK_CREATE = 2;
+
+    /**
+     * PinchImageView第一次绘制出图片内容
+     */
+    public static final int MARK_FIRST_FRAME = 3;
+
+    /**
+     * 淡入动画结束
+     */
+    public static final int MARK_FADE_END = 4;
+
+    private static final int MARK_COUNT = 5;
+
+    private static final String[] MARK_NAMES = {"click", "intent", "create", "first_frame", "fade_end"};
+
+    /**
+     * 最近一次完成的记录
+     */
+    private static OpenTrace sLatest;
+
+    private static Listener sListener;
+
+    /**
+     * 各个时刻,没有记录的为0
+     */
+    private final long[] mMarks = new long[MARK_COUNT];
+
+    /**
+     * 首次出图的是预览图还是完整的图
+     */
+    private boolean mFirstFramePreview;
+
+    /**
+     * 获取最近一次完成的记录
+     *
+     * @return 还没有完成过返回null
+     */
+    public static OpenTrace getLatest() {
+        return sLatest;
+    }
+
+    /**
+     * 设置每次记录完成时的回调
+     *
+     * @param listener 可以为null
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * 记录当前时刻
+     */
+    public void mark(int mark) {
+        mark(mark, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * 记录指定的时刻,同一个时刻只记录第一次
+     *
+     * @param time {@link SystemClock#uptimeMillis()}时间基准,小于等于0忽略
+     */
+    public void mark(int mark, long time) {
+        if (time > 0 && mMarks[mark] == 0) {
+            mMarks[mark] = time;
+        }
+    }
+
+    /**
+     * 获取某个时刻
+     *
+     * @return 没有记录返回0
+     */
+    public long getMark(int mark) {
+        return mMarks[mark];
+    }
+
+    /**
+     * 获取两个时刻之间的毫秒数
+     *
+     * @return 任意一个没有记录时返回-1
+     */
+    public long getDuration(int from, int to) {
+        if (mMarks[from] == 0 || mMarks[to] == 0) {
+            return -1;
+        }
+        return mMarks[to] - mMarks[from];
+    }
+
+    /**
+     * 从最早记录的时刻到第一次出图的毫秒数,点击时刻缺失时从发出intent算起
+     *
+     * @return 没有出图时返回-1
+     */
+    public long getTimeToFirstFrame() {
+        for (int i = MARK_CLICK; i < MARK_FIRST_FRAME; i++) {
+            if (mMarks[i] != 0) {
+                return getDuration(i, MARK_FIRST_FRAME);
+            }
+        }
+        return -1;
+    }
+
+    public void setFirstFramePreview(boolean preview) {
+        mFirstFramePreview = preview;
+    }
+
+    public boolean isFirstFramePreview() {
+        return mFirstFramePreview;
+    }
+
+    /**
+     * 记录完成,发布给{@link #getLatest()}和回调
+     */
+    public void finish() {
+        sLatest = this;
+        if (sListener != null) {
+            sListener.onOpenTraced(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("OpenTrace{");
+        long start = 0;
+        for (int i = 0; i < MARK_COUNT; i++) {
+            if (mMarks[i] == 0) {
+                continue;
+            }
+            if (start == 0) {
+                start = mMarks[i];
+            }
+            builder.append(MARK_NAMES[i]).append('=').append(mMarks[i] - start).append("ms, ");
+        }
+        builder.append("preview=").append(mFirstFramePreview).append('}');
+        return builder.toString();
+    }
+
+    /**
+     * 记录完成的回调,在主线程执行
+     */
+    public interface Listener {
+
+        void onOpenTraced(OpenTrace trace);
+    }
+}
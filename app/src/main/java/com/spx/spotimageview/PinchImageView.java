@@ -1,31 +1,30 @@
 package com.spx.spotimageview;
 
-import android.animation.Animator;
-import android.animation.ValueAnimator;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.ViewGroup;
 import android.view.ViewParent;
-import android.view.ViewPropertyAnimator;
-
-import java.util.LinkedList;
-import java.util.Queue;
 
 /**
  * 手势图片控件
  *
  * @author clifford
  */
-public class PinchImageView extends android.support.v7.widget.AppCompatImageView {
+public class PinchImageView extends android.support.v7.widget.AppCompatImageView implements Trimmable {
 
     private static final long EXIT_TIME = 200;
     private Activity activity;
@@ -44,9 +43,23 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
 
     /**
      * 惯性动画衰减参数
+     * <p>
+     * 每1/60秒速度衰减为原来的这个倍数,实际按时间连续衰减,和屏幕刷新率无关.
      */
     public static final float FLING_DAMPING_FACTOR = 0.9f;
 
+    /**
+     * 惯性动画速度衰减常数,单位 1/秒
+     * <p>
+     * 速度随时间变化为v0*e^(-kt),在60帧时和每帧衰减FLING_DAMPING_FACTOR相同.
+     */
+    private static final float FLING_DECAY = (float) (-Math.log(FLING_DAMPING_FACTOR) * 60);
+
+    /**
+     * 惯性动画停止速度,像素/秒
+     */
+    private static final float FLING_MIN_VELOCITY = 60f;
+
     /**
      * 图片最大放大比例
      */
@@ -117,20 +130,24 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
     public Matrix getInnerMatrix(Matrix matrix) {
         if (matrix == null) {
             matrix = new Matrix();
-        } else {
-            matrix.reset();
         }
-        if (isReady()) {
-            //原图大小
-            RectF tempSrc = MathUtils.rectFTake(0, 0, getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
-            //控件大小
-            RectF tempDst = MathUtils.rectFTake(0, 0, getWidth(), getHeight());
-            //计算fit center矩阵
-            matrix.setRectToRect(tempSrc, tempDst, Matrix.ScaleToFit.CENTER);
-            //释放临时对象
-            MathUtils.rectFGiven(tempDst);
-            MathUtils.rectFGiven(tempSrc);
+        matrix.set(obtainInnerMatrix());
+        return matrix;
+    }
+
+    /**
+     * 获取外部变换矩阵.
+     * <p>
+     * 外部变换矩阵是手势和动画在fit center状态上叠加的变换.
+     *
+     * @param matrix 用于填充结果的对象
+     * @return 如果传了matrix参数则将matrix填充后返回, 否则new一个填充返回
+     */
+    public Matrix getOuterMatrix(Matrix matrix) {
+        if (matrix == null) {
+            matrix = new Matrix();
         }
+        matrix.set(mOuterMatrix);
         return matrix;
     }
 
@@ -144,13 +161,101 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
      * @return 如果传了matrix参数则将matrix填充后返回, 否则new一个填充返回
      */
     public Matrix getCurrentImageMatrix(Matrix matrix) {
-        //获取内部变换矩阵
-        matrix = getInnerMatrix(matrix);
-        //乘上外部变换矩阵
-        matrix.postConcat(mOuterMatrix);
+        if (matrix == null) {
+            matrix = new Matrix();
+        }
+        matrix.set(obtainCurrentImageMatrix());
         return matrix;
     }
 
+    /**
+     * 缓存的内部变换矩阵和总变换矩阵
+     * <p>
+     * 内部矩阵只在控件尺寸或者图片变化时重新计算,总矩阵在此基础上还会因为外部矩阵变化而失效.
+     * 有效标记没有初始值,父类构造函数里设置图片时把它们置为false不会被字段初始化覆盖.
+     *
+     * @see #invalidateInnerMatrix()
+     * @see #dispatchOuterMatrixChanged()
+     */
+    private final Matrix mInnerMatrixCache = new Matrix();
+    private boolean mInnerMatrixCacheValid;
+    private final Matrix mCurrentImageMatrixCache = new Matrix();
+    private boolean mCurrentImageMatrixCacheValid;
+
+    /**
+     * 获取缓存的内部变换矩阵,失效时重新计算
+     * <p>
+     * 返回的是缓存对象本身,调用者不能修改.
+     */
+    private Matrix obtainInnerMatrix() {
+        if (!mInnerMatrixCacheValid) {
+            mInnerMatrixCache.reset();
+            if (isReady()) {
+                //原图大小
+                RectF tempSrc = MathUtils.rectFTake(0, 0, getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
+                //控件大小
+                RectF tempDst = MathUtils.rectFTake(0, 0, getWidth(), getHeight());
+                //计算fit center矩阵
+                mInnerMatrixCache.setRectToRect(tempSrc, tempDst, Matrix.ScaleToFit.CENTER);
+                mInnerMatrixCache.mapRect(mInnerImageBound, tempSrc);
+                //释放临时对象
+                MathUtils.rectFGiven(tempDst);
+                MathUtils.rectFGiven(tempSrc);
+            }
+            mInnerMatrixCacheValid = true;
+        }
+        return mInnerMatrixCache;
+    }
+
+    /**
+     * 获取缓存的总变换矩阵,失效时重新计算
+     * <p>
+     * 返回的是缓存对象本身,调用者不能修改.
+     */
+    private Matrix obtainCurrentImageMatrix() {
+        if (!mCurrentImageMatrixCacheValid) {
+            //内部变换矩阵乘上外部变换矩阵
+            mCurrentImageMatrixCache.set(obtainInnerMatrix());
+            mCurrentImageMatrixCache.postConcat(mOuterMatrix);
+            mCurrentImageMatrixCacheValid = true;
+        }
+        return mCurrentImageMatrixCache;
+    }
+
+    /**
+     * 控件尺寸或者图片变化,内部矩阵和总矩阵都要重新计算
+     */
+    private void invalidateInnerMatrix() {
+        mInnerMatrixCacheValid = false;
+        mCurrentImageMatrixCacheValid = false;
+        mImageBoundValid = false;
+    }
+
+    /**
+     * 外部矩阵发生了变化
+     * <p>
+     * 所有修改mOuterMatrix的地方都要调用,总矩阵和图片方框需要重新计算.
+     * 只有平移时使用{@link #dispatchOuterMatrixTranslated(float, float)}增量更新.
+     */
+    private void dispatchOuterMatrixChanged() {
+        mCurrentImageMatrixCacheValid = false;
+        mImageBoundValid = false;
+    }
+
+    /**
+     * 外部矩阵发生了平移
+     * <p>
+     * 平移只影响总矩阵的平移部分和方框的位置,直接偏移缓存.
+     */
+    private void dispatchOuterMatrixTranslated(float dx, float dy) {
+        if (mCurrentImageMatrixCacheValid) {
+            mCurrentImageMatrixCache.postTranslate(dx, dy);
+        }
+        if (mImageBoundValid) {
+            mImageBound.offset(dx, dy);
+        }
+    }
+
     /**
      * 获取当前变换后的图片位置和尺寸
      * <p>
@@ -166,20 +271,42 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         } else {
             rectF.setEmpty();
         }
-        if (!isReady()) {
-            return rectF;
-        } else {
-            //申请一个空matrix
-            Matrix matrix = MathUtils.matrixTake();
-            //获取当前总变换矩阵
-            getCurrentImageMatrix(matrix);
+        if (isReady()) {
+            rectF.set(obtainImageBound());
+        }
+        return rectF;
+    }
+
+    /**
+     * 当前的图片方框,控件坐标
+     * <p>
+     * 作为派生状态增量维护:平移时直接偏移,双指缩放时由内部矩阵下的方框按缩放参数算出,
+     * 其他情况下失效,下次使用时用总矩阵重新映射.
+     *
+     * @see #obtainImageBound()
+     */
+    private final RectF mImageBound = new RectF();
+    private boolean mImageBoundValid;
+
+    /**
+     * 内部矩阵下的图片方框,即fit center状态下的图片方框,随内部矩阵一起失效
+     */
+    private final RectF mInnerImageBound = new RectF();
+
+    /**
+     * 获取当前的图片方框
+     * <p>
+     * 返回的是缓存对象本身,调用者不能修改,对外使用{@link #getImageBound(RectF)}获取副本.
+     * 只在isReady时有意义.
+     */
+    private RectF obtainImageBound() {
+        if (!mImageBoundValid) {
             //对原图矩形进行变换得到当前显示矩形
-            rectF.set(0, 0, getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
-            matrix.mapRect(rectF);
-            //释放临时matrix
-            MathUtils.matrixGiven(matrix);
-            return rectF;
+            mImageBound.set(0, 0, getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
+            obtainCurrentImageMatrix().mapRect(mImageBound);
+            mImageBoundValid = true;
         }
+        return mImageBound;
     }
 
     /**
@@ -226,34 +353,65 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
             return;
         }
         //停止mask动画
-        if (mMaskAnimator != null) {
-            mMaskAnimator.cancel();
-            mMaskAnimator = null;
-        }
+        mAnimationEngine.cancelMask();
         //如果duration为0或者之前没有设置过mask,不执行动画,立即设置
         if (duration <= 0 || mMask == null) {
             if (mMask == null) {
                 mMask = new RectF();
             }
             mMask.set(mask);
-            invalidate();
+            invalidateImage();
         } else {
             //执行mask动画
-            mMaskAnimator = new MaskAnimator(mMask, mask, duration);
-            mMaskAnimator.start();
+            mAnimationEngine.animateMask(mMask, mask, duration);
+        }
+    }
+
+    /**
+     * 从屏幕上的一个区域放大到fit center状态
+     * <p>
+     * 用于打开页面时图片从列表缩略图的位置放大出来.
+     * 起始状态下图片按fit center放在这个区域里,和ImageView默认的显示方式相同.
+     * 图片未就绪时不执行.
+     *
+     * @param from     起始区域,屏幕坐标
+     * @param duration 动画时间
+     */
+    public void zoomFromScreenRect(RectF from, long duration) {
+        if (!isReady() || from == null || from.isEmpty()) {
+            return;
         }
+        //屏幕坐标换算到控件坐标
+        int[] location = new int[2];
+        getLocationOnScreen(location);
+        //fit center状态下的图片方框随内部矩阵一起计算
+        obtainInnerMatrix();
+        RectF bound = mInnerImageBound;
+        float scale = Math.min(from.width() / bound.width(), from.height() / bound.height());
+        //以fit center方框的中心缩放,再把中心移到起始区域的中心
+        Matrix start = MathUtils.matrixTake();
+        start.postScale(scale, scale, bound.centerX(), bound.centerY());
+        start.postTranslate(from.centerX() - location[0] - bound.centerX(), from.centerY() - location[1] - bound.centerY());
+        Matrix end = MathUtils.matrixTake();
+        cancelAllAnimator();
+        mOuterMatrix.set(start);
+        dispatchOuterMatrixChanged();
+        mAnimationEngine.animateTransform(start, end, duration);
+        MathUtils.matrixGiven(end);
+        MathUtils.matrixGiven(start);
+        invalidate();
     }
 
     /**
      * 重置所有状态
      * <p>
-     * 重置位置到fit center状态,清空mask,停止所有手势,停止所有动画.
+     * 重置位置到fit center状态,清空mask,停止所有手势,停止所有动画,恢复拖动关闭造成的位移和透明度.
      * 但不清空drawable,以及事件绑定相关数据.
      */
     public void reset() {
         //重置位置到fit
         mOuterMatrix.reset();
-//        dispatchOuterMatrixChanged();
+        dispatchOuterMatrixChanged();
         //清空mask
         mMask = null;
         //停止所有手势
@@ -261,17 +419,95 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         mLastMovePoint.set(0, 0);
         mScaleCenter.set(0, 0);
         mScaleBase = 0;
-        //停止所有动画
-        if (mMaskAnimator != null) {
-            mMaskAnimator.cancel();
-            mMaskAnimator = null;
-        }
+        mPendingMove = false;
+        //停止所有动画,包括拖动关闭的位移和透明度动画
+        mAnimationEngine.cancelAll();
         cancelAllAnimator();
+        //拖动关闭留下的位移和透明度恢复,透明度加在父控件上
+        isFlingout = false;
+        setTranslationY(0);
+        setAlpha(1f);
+        setBackgroudAlpha(1f);
         //重绘
         invalidate();
     }
 
 
+    /**
+     * 把当前显示的图片替换成同一张图的另一个分辨率版本
+     * <p>
+     * 用于先显示预览图,再换成高清图的渐进加载.
+     * 替换后重新计算内部变换矩阵,并修正外部变换矩阵,使图片在屏幕上的位置和大小不变,
+     * 正在进行的手势和缩放动画也会一起修正.
+     * 当前没有图片时等同于setImageBitmap.
+     *
+     * @param bitmap 新的图片
+     */
+    public void swapImageBitmap(final Bitmap bitmap) {
+        swapImage(new BitmapDrawable(getResources(), bitmap), new Runnable() {
+            @Override
+            public void run() {
+                setImageBitmap(bitmap);
+            }
+        });
+    }
+
+    /**
+     * 替换图片并保持显示位置不变
+     *
+     * @param drawable 新的图片,只用于读取尺寸
+     * @param setter   执行实际的替换
+     */
+    private void swapImage(Drawable drawable, Runnable setter) {
+        int newWidth = drawable.getIntrinsicWidth();
+        int newHeight = drawable.getIntrinsicHeight();
+        if (!isReady() || newWidth <= 0 || newHeight <= 0) {
+            setter.run();
+            return;
+        }
+        int oldWidth = getDrawable().getIntrinsicWidth();
+        int oldHeight = getDrawable().getIntrinsicHeight();
+        Matrix oldInner = MathUtils.matrixTake();
+        getInnerMatrix(oldInner);
+        setter.run();
+        if (!isReady()) {
+            MathUtils.matrixGiven(oldInner);
+            return;
+        }
+        Matrix newInner = MathUtils.matrixTake();
+        getInnerMatrix(newInner);
+        //修正矩阵:新内部坐标 -> 新图坐标 -> 旧图坐标 -> 旧内部坐标
+        Matrix compensate = MathUtils.matrixTake();
+        newInner.invert(compensate);
+        compensate.postScale((float) oldWidth / newWidth, (float) oldHeight / newHeight);
+        compensate.postConcat(oldInner);
+        //新外部矩阵为先修正再乘上旧外部矩阵
+        Matrix outer = MathUtils.matrixTake(compensate);
+        outer.postConcat(mOuterMatrix);
+        mOuterMatrix.set(outer);
+        dispatchOuterMatrixChanged();
+        //缩放动画的起止状态也要一起修正
+        mAnimationEngine.compensateTransform(compensate);
+        //双指缩放中,缩放中心和基础缩放比例换算到新的内部坐标
+        if (mPinchMode == PINCH_MODE_SCALE) {
+            Matrix inverse = MathUtils.matrixTake();
+            compensate.invert(inverse);
+            float[] center = mTempPoint;
+            center[0] = mScaleCenter.x;
+            center[1] = mScaleCenter.y;
+            inverse.mapPoints(center);
+            mScaleCenter.set(center[0], center[1]);
+            mScaleBase /= MathUtils.getMatrixScale(compensate, mTempScale)[0];
+            MathUtils.matrixGiven(inverse);
+        }
+        MathUtils.matrixGiven(outer);
+        MathUtils.matrixGiven(compensate);
+        MathUtils.matrixGiven(newInner);
+        MathUtils.matrixGiven(oldInner);
+        invalidate();
+    }
+
+
     ////////////////////////////////用于重载定制////////////////////////////////
 
     /**
@@ -324,245 +560,637 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
     }
 
 
-    ////////////////////////////////绘制////////////////////////////////
-
-    @Override
-    protected void onDraw(Canvas canvas) {
-        //在绘制前设置变换矩阵
-        if (isReady()) {
-            Matrix matrix = MathUtils.matrixTake();
-            setImageMatrix(getCurrentImageMatrix(matrix));
-            MathUtils.matrixGiven(matrix);
-        }
-        //对图像做遮罩处理
-        if (mMask != null) {
-            canvas.save();
-            canvas.clipRect(mMask);
-            super.onDraw(canvas);
-            canvas.restore();
-        } else {
-            super.onDraw(canvas);
-        }
-    }
-
-
-    ////////////////////////////////有效性判断////////////////////////////////
+    ////////////////////////////////分块显示////////////////////////////////
 
     /**
-     * 判断当前情况是否能执行手势相关计算
+     * 分块显示的大图
      * <p>
-     * 包括:是否有图片,图片是否有尺寸,控件是否有尺寸.
+     * 不为null时控件处于分块模式,drawable为只提供原图尺寸的占位对象,实际内容由图块绘制.
      *
-     * @return 是否能执行手势相关计算
+     * @see #setImageRegionDecoder(BitmapRegionDecoder)
      */
-    private boolean isReady() {
-        return getDrawable() != null && getDrawable().getIntrinsicWidth() > 0 && getDrawable().getIntrinsicHeight() > 0
-                && getWidth() > 0 && getHeight() > 0;
-    }
-
+    private TiledImage mTiledImage;
 
-    ////////////////////////////////mask动画处理////////////////////////////////
+    /**
+     * 复用图块内存的对象池
+     *
+     * @see #setBitmapPool(BitmapPool)
+     */
+    private BitmapPool mBitmapPool;
 
     /**
-     * mask修改的动画
+     * 设置复用图块内存的对象池
      * <p>
-     * 和图片的动画相互独立.
+     * 分块模式下释放的图块会还给这个对象池,解码新图块时优先从中借用.
      *
-     * @see #zoomMaskTo(RectF, long)
+     * @param pool 对象池, 为null时不复用
      */
-    private MaskAnimator mMaskAnimator;
+    public void setBitmapPool(BitmapPool pool) {
+        mBitmapPool = pool;
+    }
 
     /**
-     * mask变换动画
+     * 以分块模式显示一张大图
      * <p>
-     * 将mask从一个rect动画到另外一个rect
-     */
-    private class MaskAnimator extends ValueAnimator implements ValueAnimator.AnimatorUpdateListener {
-
-        /**
-         * 开始mask
-         */
-        private float[] mStart = new float[4];
-
-        /**
-         * 结束mask
-         */
-        private float[] mEnd = new float[4];
-
-        /**
-         * 中间结果mask
-         */
-        private float[] mResult = new float[4];
-
-        /**
-         * 创建mask变换动画
-         *
-         * @param start    动画起始状态
-         * @param end      动画终点状态
-         * @param duration 动画持续时间
-         */
-        public MaskAnimator(RectF start, RectF end, long duration) {
-            super();
-            setFloatValues(0, 1f);
-            setDuration(duration);
-            addUpdateListener(this);
-            //将起点终点拷贝到数组方便计算
-            mStart[0] = start.left;
-            mStart[1] = start.top;
-            mStart[2] = start.right;
-            mStart[3] = start.bottom;
-            mEnd[0] = end.left;
-            mEnd[1] = end.top;
-            mEnd[2] = end.right;
-            mEnd[3] = end.bottom;
+     * 只解码当前缩放比例下可见的图块,适合尺寸远超屏幕的图片.
+     * 设置之后decoder由控件负责回收,再次设置普通图片时自动退出分块模式.
+     *
+     * @param decoder 大图的区域解码器
+     */
+    public void setImageRegionDecoder(BitmapRegionDecoder decoder) {
+        if (decoder == null) {
+            setImageDrawable(null);
+            return;
         }
+        TiledImage tiledImage = new TiledImage(decoder, mBitmapPool);
+        //设置占位drawable的同时会释放之前的分块大图
+        setImageDrawable(tiledImage.getPlaceholder());
+        mTiledImage = tiledImage;
+        reset();
+    }
 
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            //获取动画进度,0-1范围
-            float value = (Float) animation.getAnimatedValue();
-            //根据进度对起点终点之间做插值
-            for (int i = 0; i < 4; i++) {
-                mResult[i] = mStart[i] + (mEnd[i] - mStart[i]) * value;
-            }
-            //期间mask有可能被置空了,所以判断一下
-            if (mMask == null) {
-                mMask = new RectF();
+    /**
+     * 把当前显示的图片替换成同一张图的分块版本,保持当前显示位置不变
+     *
+     * @param decoder 大图的区域解码器
+     * @see #swapImageBitmap(Bitmap)
+     */
+    public void swapImageRegionDecoder(BitmapRegionDecoder decoder) {
+        final TiledImage tiledImage = new TiledImage(decoder, mBitmapPool);
+        //底图在后台解码,完成之前继续显示当前的图片
+        if (getDrawable() instanceof BitmapDrawable) {
+            tiledImage.setPreview(((BitmapDrawable) getDrawable()).getBitmap());
+        }
+        swapImage(tiledImage.getPlaceholder(), new Runnable() {
+            @Override
+            public void run() {
+                setImageDrawable(tiledImage.getPlaceholder());
+                mTiledImage = tiledImage;
             }
-            //设置新的mask并绘制
-            mMask.set(mResult[0], mResult[1], mResult[2], mResult[3]);
-            invalidate();
+        });
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        //设置了其他图片,退出分块模式
+        if (mTiledImage != null && drawable != mTiledImage.getPlaceholder()) {
+            releaseTiledImage();
         }
+        //旧图的缩小版本必须在旧图被释放之前停止读取
+        releaseMipPyramid();
+        super.setImageDrawable(drawable);
+        invalidateInnerMatrix();
+        buildMipPyramid();
+    }
+
+    @Override
+    public void setImageBitmap(Bitmap bm) {
+        super.setImageBitmap(bm);
+        invalidateInnerMatrix();
     }
 
+    @Override
+    public void setImageResource(int resId) {
+        releaseTiledImage();
+        releaseMipPyramid();
+        super.setImageResource(resId);
+        invalidateInnerMatrix();
+    }
 
-    ////////////////////////////////手势动画处理////////////////////////////////
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        invalidateInnerMatrix();
+    }
 
     /**
-     * 在单指模式下:
-     * 记录上一次手指的位置,用于计算新的位置和上一次位置的差值.
-     * <p>
-     * 双指模式下:
-     * 记录两个手指的中点,作为和mScaleCenter绑定的点.
-     * 这个绑定可以保证mScaleCenter无论如何都会跟随这个中点.
-     *
-     * @see #mScaleCenter
-     * @see #scale(PointF, float, float, PointF)
-     * @see #scaleEnd()
+     * 释放分块大图的所有资源
      */
-    private PointF mLastMovePoint = new PointF();
+    private void releaseTiledImage() {
+        if (mTiledImage != null) {
+            mTiledImage.recycle();
+            mTiledImage = null;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        MemoryTrimmer.getDefault().register(this);
+        //构造时跳过的缩小版本在这里补上,已经存在时不做任何事
+        buildMipPyramid();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        MemoryTrimmer.getDefault().unregister(this);
+        //离开窗口后不再需要帧回调,没有应用的移动也丢弃
+        mAnimationEngine.cancelAll();
+        mPendingMove = false;
+        //离开窗口后图块不再需要,重新显示时按需解码
+        if (mTiledImage != null) {
+            mTiledImage.releaseTiles();
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE) {
+            //回到前台,补回被裁剪的缩小版本,可见图块在下一次绘制时按优先级补齐
+            if (mMipPyramid != null && mMipPyramid.isTrimmed()) {
+                releaseMipPyramid();
+                buildMipPyramid();
+            }
+            invalidate();
+        } else {
+            //页面onStop后窗口不可见,看不到的图块先释放,可见的留着回来时直接显示
+            trimMemory(TRIM_LEVEL_OFFSCREEN);
+        }
+    }
 
     /**
-     * 缩放模式下图片的缩放中点.
+     * 按级别释放图块和缩小版本
      * <p>
-     * 为其指代的点经过innerMatrix变换之后的值.
-     * 其指代的点在手势过程中始终跟随mLastMovePoint.
-     * 通过双指缩放时,其为缩放中心点.
-     *
-     * @see #saveScaleContext(float, float, float, float)
-     * @see #mLastMovePoint
-     * @see #scale(PointF, float, float, PointF)
+     * 正在显示的图片本身不释放,它由页面持有.
      */
-    private PointF mScaleCenter = new PointF();
+    @Override
+    public void trimMemory(int level) {
+        if (mTiledImage != null) {
+            mTiledImage.trimMemory(level);
+        }
+        if (mMipPyramid != null) {
+            mMipPyramid.trimMemory(level);
+        }
+        invalidate();
+    }
+
+
+    ////////////////////////////////多级缩小////////////////////////////////
 
     /**
-     * 缩放模式下的基础缩放比例
+     * 整图的多级缩小版本
      * <p>
-     * 为外层缩放值除以开始缩放时两指距离.
-     * 其值乘上最新的两指之间距离为最新的图片缩放比例.
+     * 图片被缩小显示时绘制缩小版本,每帧读取的纹素和屏幕像素数量相当.
+     * 只在显示普通bitmap时存在.
      *
-     * @see #saveScaleContext(float, float, float, float)
-     * @see #scale(PointF, float, float, PointF)
+     * @see #drawImage(Canvas)
      */
-    private float mScaleBase = 0;
+    private MipPyramid mMipPyramid;
 
     /**
-     * 图片缩放动画
-     * <p>
-     * 缩放模式把图片的位置大小超出限制之后触发.
-     * 双击图片放大或缩小时触发.
-     * 手动调用outerMatrixTo触发.
-     *
-     * @see #scaleEnd()
+     * 绘制缩小版本用的画笔,开启双线性过滤
      */
-    private ScaleAnimator mScaleAnimator;
+    private final Paint mMipPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
     /**
-     * 滑动产生的惯性动画
-     *
-     * @see #fling(float, float)
+     * 每生成一级缩小版本后重绘
      */
-    private FlingAnimator mFlingAnimator;
-
-
-    private void exit() {
-        Log.d(TAG, "exit: ...");
-
-        ViewParent parent = getParent();
-        if (parent instanceof ViewGroup) {
-            ViewGroup viewGroup = (ViewGroup) parent;
-            viewGroup.animate().alpha(0).setDuration(EXIT_TIME).start();
+    private final Runnable mInvalidateAction = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
         }
+    };
 
-        ViewPropertyAnimator viewPropertyAnimator = this.animate().alpha(0).setDuration(EXIT_TIME);
-        viewPropertyAnimator.setListener(new Animator.AnimatorListener() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-
-            }
+    /**
+     * 显示普通bitmap时在后台生成缩小版本
+     */
+    private void buildMipPyramid() {
+        //父类构造函数里设置xml中的图片时字段还没有初始化,等attach到窗口时再生成
+        if (mInvalidateAction == null) {
+            return;
+        }
+        Drawable drawable = getDrawable();
+        if (mMipPyramid == null && drawable instanceof BitmapDrawable
+                && MipPyramid.isSupported(((BitmapDrawable) drawable).getBitmap())) {
+            mMipPyramid = new MipPyramid(((BitmapDrawable) drawable).getBitmap(), mBitmapPool, mInvalidateAction);
+            mMipPyramid.build();
+        }
+    }
 
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                if (activity != null) {
-                    activity.finish();
-                    activity.overridePendingTransition(R.anim.fade_in, R.anim.fade_out);
-                }
-            }
+    private void releaseMipPyramid() {
+        if (mMipPyramid != null) {
+            mMipPyramid.recycle();
+            mMipPyramid = null;
+        }
+    }
 
-            @Override
-            public void onAnimationCancel(Animator animation) {
 
-            }
+    ////////////////////////////////绘制////////////////////////////////
 
-            @Override
-            public void onAnimationRepeat(Animator animation) {
+    /**
+     * 是否已经从画布上读取过最大bitmap尺寸
+     *
+     * @see SampledBitmapDecoder#setMaxBitmapSize(int)
+     */
+    private static boolean sMaxBitmapSizeResolved = false;
 
-            }
-        });
-        viewPropertyAnimator.start();
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (SpanTracer.ENABLED) {
+            SpanTracer.begin(SpanTracer.SPAN_DRAW);
+        }
+        //记录画布支持的最大bitmap尺寸,解码时不超过这个尺寸
+        if (!sMaxBitmapSizeResolved && canvas.isHardwareAccelerated()) {
+            SampledBitmapDecoder.setMaxBitmapSize(Math.min(canvas.getMaximumBitmapWidth(), canvas.getMaximumBitmapHeight()));
+            sMaxBitmapSizeResolved = true;
+        }
+        //对图像做遮罩处理
+        if (mMask != null) {
+            canvas.save();
+            canvas.clipRect(mMask);
+            drawImage(canvas);
+            canvas.restore();
+        } else {
+            drawImage(canvas);
+        }
+        //记录本次绘制覆盖的区域,下次局部重绘用
+        mDrawnRectValid = getVisibleImageRect(mDrawnRect);
+        if (mOnContentDrawnAction != null && isReady() && (mTiledImage == null || mTiledImage.hasContent())) {
+            Runnable action = mOnContentDrawnAction;
+            mOnContentDrawnAction = null;
+            action.run();
+        }
+        if (SpanTracer.ENABLED) {
+            SpanTracer.end(SpanTracer.SPAN_DRAW);
+        }
+    }
+
+    /**
+     * 下一次绘制出图片内容后执行一次
+     */
+    private Runnable mOnContentDrawnAction;
 
+    /**
+     * 设置下一次绘制出图片内容后执行一次的动作
+     * <p>
+     * 分块模式下底图或者预览图准备好才算有内容.
+     * 动作在onDraw里直接执行,用于记录出图时刻,不能做耗时操作.
+     *
+     * @param action 可以为null
+     */
+    public void setOnContentDrawnAction(Runnable action) {
+        mOnContentDrawnAction = action;
+    }
+
+    /**
+     * 调用invalidate的累计次数,包括局部重绘
+     */
+    private int mInvalidateCount;
+
+    @Override
+    public void invalidate() {
+        mInvalidateCount++;
+        super.invalidate();
+    }
+
+    @Override
+    public void invalidate(int l, int t, int r, int b) {
+        mInvalidateCount++;
+        super.invalidate(l, t, r, b);
+    }
+
+    /**
+     * 获取调用invalidate的累计次数
+     * <p>
+     * 用于手势回放测试统计每个手势引起的重绘请求.
+     */
+    public int getInvalidateCount() {
+        return mInvalidateCount;
+    }
+
+    /**
+     * 上次绘制时图片在控件上覆盖的区域
+     * <p>
+     * 为图片方框和mask的交集.图片移动缩放或者mask变化时,
+     * 只有新旧两个区域的并集需要重绘,图片四周留黑的部分不用重新光栅化.
+     *
+     * @see #invalidateImage()
+     */
+    private final RectF mDrawnRect = new RectF();
+    private boolean mDrawnRectValid;
+
+    /**
+     * 局部重绘区域的临时变量
+     */
+    private final Rect mDirtyRect = new Rect();
+
+    /**
+     * 获取图片当前在控件上覆盖的区域
+     *
+     * @param rectF 用于填充结果的对象
+     * @return 图片未就绪时返回false, rectF内容无意义
+     */
+    private boolean getVisibleImageRect(RectF rectF) {
+        if (!isReady()) {
+            return false;
+        }
+        rectF.set(obtainImageBound());
+        if (mMask != null && !rectF.intersect(mMask)) {
+            rectF.setEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * 图片位置或者mask变化后重绘
+     * <p>
+     * 只重绘上次绘制区域和当前区域的并集.
+     * 还没有绘制过或者图片未就绪时整体重绘.
+     * 只能用于图片内容不变的情况,换图需要整体重绘.
+     */
+    private void invalidateImage() {
+        RectF dirty = MathUtils.rectFTake();
+        if (!mDrawnRectValid || !getVisibleImageRect(dirty)) {
+            MathUtils.rectFGiven(dirty);
+            invalidate();
+            return;
+        }
+        dirty.union(mDrawnRect);
+        //新旧区域都为空说明图片不在可见范围内
+        if (!dirty.isEmpty()) {
+            dirty.roundOut(mDirtyRect);
+            invalidate(mDirtyRect.left, mDirtyRect.top, mDirtyRect.right, mDirtyRect.bottom);
+        }
+        MathUtils.rectFGiven(dirty);
+    }
+
+    /**
+     * 绘制图片内容
+     * <p>
+     * 分块模式下只绘制和控件相交的图块,否则按普通ImageView绘制.
+     */
+    private void drawImage(Canvas canvas) {
+        if (mTiledImage != null && isReady()) {
+            Matrix matrix = obtainCurrentImageMatrix();
+            //图片在控件上的可见部分
+            RectF visible = MathUtils.rectFTake();
+            getImageBound(visible);
+            if (!visible.intersect(0, 0, getWidth(), getHeight())) {
+                visible.setEmpty();
+            }
+            mTiledImage.draw(canvas, matrix, visible, getWidth(), getHeight());
+            MathUtils.rectFGiven(visible);
+        } else if (mMipPyramid != null && isReady()) {
+            Matrix matrix = obtainCurrentImageMatrix();
+            //按原图到屏幕的缩放比例选择一级,不需要缩小时用原图
+            Bitmap level = mMipPyramid.selectLevel(MathUtils.getMatrixScale(matrix, mTempScale)[0]);
+            if (level == null) {
+                drawDrawable(canvas, matrix);
+                return;
+            }
+            //先把缩小版本放大回原图坐标,再应用总矩阵
+            Matrix levelMatrix = MathUtils.matrixTake(matrix);
+            levelMatrix.preScale((float) getDrawable().getIntrinsicWidth() / level.getWidth(),
+                    (float) getDrawable().getIntrinsicHeight() / level.getHeight());
+            canvas.drawBitmap(level, levelMatrix, mMipPaint);
+            MathUtils.matrixGiven(levelMatrix);
+        } else if (isReady()) {
+            drawDrawable(canvas, obtainCurrentImageMatrix());
+        } else {
+            super.onDraw(canvas);
+        }
+    }
+
+    /**
+     * 按总矩阵直接画drawable
+     * <p>
+     * 不通过setImageMatrix:矩阵变化时它会整体invalidate,在onDraw里调用会让每次局部重绘之后再多一次整个控件的重绘.
+     */
+    private void drawDrawable(Canvas canvas, Matrix matrix) {
+        int saveCount = canvas.save();
+        canvas.concat(matrix);
+        getDrawable().draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+
+
+    ////////////////////////////////有效性判断////////////////////////////////
+
+    /**
+     * 判断当前情况是否能执行手势相关计算
+     * <p>
+     * 包括:是否有图片,图片是否有尺寸,控件是否有尺寸.
+     *
+     * @return 是否能执行手势相关计算
+     */
+    private boolean isReady() {
+        return getDrawable() != null && getDrawable().getIntrinsicWidth() > 0 && getDrawable().getIntrinsicHeight() > 0
+                && getWidth() > 0 && getHeight() > 0;
+    }
+
+
+    ////////////////////////////////动画处理////////////////////////////////
+
+    /**
+     * 动画引擎
+     * <p>
+     * 矩阵,惯性,mask,位移和透明度动画都由它驱动,每帧只重绘一次.
+     * mask动画和图片的动画相互独立.
+     *
+     * @see #zoomMaskTo(RectF, long)
+     * @see #scaleEnd()
+     * @see #fling(float, float)
+     */
+    private final AnimationEngine mAnimationEngine = new AnimationEngine(new AnimationTarget());
+
+    /**
+     * 把动画引擎每帧计算的值应用到控件上
+     */
+    private class AnimationTarget implements AnimationEngine.Target {
+
+        @Override
+        public void onTransform(float[] values) {
+            mOuterMatrix.setValues(values);
+            dispatchOuterMatrixChanged();
+        }
+
+        @Override
+        public boolean onFling(float dx, float dy) {
+            return translateBy(dx, dy);
+        }
+
+        @Override
+        public void onInputFrame() {
+            applyPendingMove(mTouchPrediction);
+        }
+
+        @Override
+        public void onMask(float[] values) {
+            //期间mask有可能被置空了,所以判断一下
+            if (mMask == null) {
+                mMask = new RectF();
+            }
+            mMask.set(values[0], values[1], values[2], values[3]);
+        }
+
+        @Override
+        public void onProperty(int property, float value) {
+            switch (property) {
+                case AnimationEngine.PROPERTY_TRANSLATION_Y:
+                    setTranslationY(value);
+                    break;
+                case AnimationEngine.PROPERTY_ALPHA:
+                    setAlpha(value);
+                    break;
+                case AnimationEngine.PROPERTY_BACKGROUND_ALPHA:
+                    setBackgroudAlpha(value);
+                    break;
+            }
+        }
+
+        @Override
+        public void onInvalidate() {
+            invalidateImage();
+        }
+    }
+
+    /**
+     * 关闭页面,退出和甩出动画结束时执行
+     */
+    private final Runnable mFinishAction = new Runnable() {
+        @Override
+        public void run() {
+            isFlingout = false;
+            if (activity != null) {
+                activity.finish();
+                activity.overridePendingTransition(R.anim.fade_in, R.anim.fade_out);
+            }
+        }
+    };
+
+    /**
+     * 惯性动画结束时释放预取
+     */
+    private final Runnable mClearPrefetchAction = new Runnable() {
+        @Override
+        public void run() {
+            clearPrefetch();
+        }
+    };
+
+
+    ////////////////////////////////手势动画处理////////////////////////////////
+
+    /**
+     * 在单指模式下:
+     * 记录上一次手指的位置,用于计算新的位置和上一次位置的差值.
+     * <p>
+     * 双指模式下:
+     * 记录两个手指的中点,作为和mScaleCenter绑定的点.
+     * 这个绑定可以保证mScaleCenter无论如何都会跟随这个中点.
+     *
+     * @see #mScaleCenter
+     * @see #scale(PointF, float, float, PointF)
+     * @see #scaleEnd()
+     */
+    private PointF mLastMovePoint = new PointF();
+
+    /**
+     * 缩放模式下图片的缩放中点.
+     * <p>
+     * 为其指代的点经过innerMatrix变换之后的值.
+     * 其指代的点在手势过程中始终跟随mLastMovePoint.
+     * 通过双指缩放时,其为缩放中心点.
+     *
+     * @see #saveScaleContext(float, float, float, float)
+     * @see #mLastMovePoint
+     * @see #scale(PointF, float, float, PointF)
+     */
+    private PointF mScaleCenter = new PointF();
+
+    /**
+     * 缩放模式下的基础缩放比例
+     * <p>
+     * 为外层缩放值除以开始缩放时两指距离.
+     * 其值乘上最新的两指之间距离为最新的图片缩放比例.
+     *
+     * @see #saveScaleContext(float, float, float, float)
+     * @see #scale(PointF, float, float, PointF)
+     */
+    private float mScaleBase = 0;
+
+    /**
+     * 手势计算的临时变量
+     * <p>
+     * 触摸移动时每个事件都要计算中点和缩放值,复用数组避免持续缩放时不停产生垃圾.
+     *
+     * @see MathUtils#getCenterPoint(float, float, float, float, float[])
+     * @see MathUtils#getMatrixScale(Matrix, float[])
+     */
+    private final float[] mTempPoint = new float[2];
+    private final float[] mTempScale = new float[2];
+
+    private void exit() {
+        if (SpanTracer.ENABLED) {
+            SpanTracer.instant(SpanTracer.EVENT_EXIT);
+        }
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_BACKGROUND_ALPHA, getBackgroundAlpha(), 0, EXIT_TIME, null);
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_ALPHA, getAlpha(), 0, EXIT_TIME, mFinishAction);
     }
 
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (!SpanTracer.ENABLED) {
+            return handleTouchEvent(event);
+        }
+        SpanTracer.begin(SpanTracer.SPAN_TOUCH, event.getActionMasked());
+        try {
+            return handleTouchEvent(event);
+        } finally {
+            SpanTracer.end(SpanTracer.SPAN_TOUCH);
+        }
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
         int touchCount = event.getPointerCount();
         int action = event.getAction() & MotionEvent.ACTION_MASK;
-        Log.d(TAG, "onTouchEvent: action:" + action + ", touchCount:" + touchCount + ", mPinchMode:" + mPinchMode);
         super.onTouchEvent(event);
+        //其他事件按顺序处理之前,先把积攒的移动应用上,不做预测
+        if (action != MotionEvent.ACTION_MOVE) {
+            applyPendingMove(false);
+        }
 
 
         //最后一个点抬起或者取消，结束所有模式
         if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            //滚动模式下抬起手指的速度,用于惯性滑动
+            float flingX = 0;
+            float flingY = 0;
             if (vTracker != null) {
+                if (action == MotionEvent.ACTION_UP && mPinchMode == PINCH_MODE_SCROLL) {
+                    vTracker.addMovement(event);
+                    vTracker.computeCurrentVelocity(1000);
+                    flingX = vTracker.getXVelocity();
+                    flingY = vTracker.getYVelocity();
+                }
                 vTracker.recycle();
                 vTracker = null;
             }
 
             if (action == MotionEvent.ACTION_UP) {
-                long now = System.currentTimeMillis();
-                if (now - downTime < 80) {
-                    Log.d(TAG, "onTouchEvent: CLICK!!! exit()");
+                //按事件时间判断,回放录制的手势时结果和实际操作一致
+                if (event.getEventTime() - downTime < 80) {
+                    if (SpanTracer.ENABLED) {
+                        SpanTracer.instant(SpanTracer.EVENT_CLICK);
+                    }
                     exit();
                     return true;
                 }
             }
 
-            Log.d(TAG, "onTouchEvent: fingout:" + isFlingout);
-
             //如果之前是缩放模式,还需要触发一下缩放结束动画
             if (mPinchMode == PINCH_MODE_SCALE) {
+                if (SpanTracer.ENABLED) {
+                    SpanTracer.begin(SpanTracer.SPAN_SCALE_END);
+                }
                 int i = scaleEnd();
+                if (SpanTracer.ENABLED) {
+                    SpanTracer.end(SpanTracer.SPAN_SCALE_END);
+                }
 //                Log.d(TAG, "onTouchEvent: scale end :" + i);
                 if (i == 0) {
                     mPinchMode = PINCH_MODE_FREE;
@@ -581,6 +1209,8 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
                     }
 
                 }
+            } else if (mPinchMode == PINCH_MODE_SCROLL && (flingX != 0 || flingY != 0)) {
+                fling(flingX, flingY);
             }
 //            if (mPinchMode == PINCH_MODE_SCROLL) {
 //                animateBack();
@@ -612,12 +1242,14 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
             vTracker.addMovement(event);
 
 
-            downTime = System.currentTimeMillis();
+            downTime = event.getEventTime();
             startY = event.getY();
             lastRawY = event.getRawY();
             startRawY = event.getRawY();
+            //图片放大后能横向移动时先由图片处理横向滑动,移到边缘再交给外层翻页
+            requestParentDisallowIntercept(canScrollHorizontally(-1) || canScrollHorizontally(1));
             //在矩阵动画过程中不允许启动滚动模式
-            if (!(mScaleAnimator != null && mScaleAnimator.isRunning())) {
+            if (!mAnimationEngine.isTransformRunning()) {
                 //停止所有动画
                 cancelAllAnimator();
                 //切换到滚动模式
@@ -630,157 +1262,288 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         } else if (action == MotionEvent.ACTION_POINTER_DOWN) {
             //停止所有动画
             cancelAllAnimator();
-            //切换到缩放模式
+            //切换到缩放模式,缩放过程中不允许外层翻页
             mPinchMode = PINCH_MODE_SCALE;
+            requestParentDisallowIntercept(true);
             //保存缩放的两个手指
             saveScaleContext(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
         } else if (action == MotionEvent.ACTION_MOVE) {
 
-            if (!(mScaleAnimator != null && mScaleAnimator.isRunning())) {
+            if (!mAnimationEngine.isTransformRunning()) {
                 //在滚动模式下移动
                 if (mPinchMode == PINCH_MODE_SCROLL) {
-                    //每次移动产生一个差值累积到图片位置上
-                    scrollBy(event.getX() - mLastMovePoint.x, event.getY() - mLastMovePoint.y);
-                    //记录新的移动点
-                    mLastMovePoint.set(event.getX(), event.getY());
+                    //速度跟踪器每个事件都要收到,它会读取事件里的全部历史采样
+                    if (vTracker != null) {
+                        vTracker.addMovement(event);
+                    }
+                    if (mBatchedInput) {
+                        queueMove(event);
+                    } else {
+                        moveScroll(event.getX(), event.getY(), false);
+                    }
                     //在缩放模式下移动
                 } else if (mPinchMode == PINCH_MODE_SCALE && event.getPointerCount() > 1) {
-                    //两个缩放点间的距离
-                    float distance = MathUtils.getDistance(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
-                    //保存缩放点中点
-                    float[] lineCenter = MathUtils.getCenterPoint(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
-                    mLastMovePoint.set(lineCenter[0], lineCenter[1]);
-                    //处理缩放
-                    scale(mScaleCenter, mScaleBase, distance, mLastMovePoint);
-                } else if (touchCount == 1 && action == MotionEvent.ACTION_MOVE) {
+                    if (mBatchedInput) {
+                        queueMove(event);
+                    } else {
+                        moveScale(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
+                    }
+                } else if (touchCount == 1) {
                     vTracker.addMovement(event);
-                    vTracker.computeCurrentVelocity(100);
-                    float yVelocity = Math.abs(vTracker.getYVelocity());
-                    float xM = event.getX() - mLastMovePoint.x;
-                    float yM = event.getY() - mLastMovePoint.y;
-                    Log.d(TAG, "onTouchEvent: .... moving...yM:" + yM + ", yVelocity:" + yVelocity);
+                    if (mBatchedInput) {
+                        queueMove(event);
+                    } else if (!moveDrag(event.getX(), event.getY(), event.getRawY(), false)) {
+                        return false;
+                    }
+                }
+            }
+        }
 
-                    //每次移动产生一个差值累积到图片位置上
-//                    scrollBy(xM, yM);
-                    //记录新的移动点
-                    mLastMovePoint.set(event.getX(), event.getY());
 
-                    float rawY = event.getRawY();
+        return true;
+    }
 
-                    float v = rawY - lastRawY;
+    /**
+     * 滚动模式下移动到指定位置
+     *
+     * @param predict 是否按当前速度预测触摸点
+     */
+    private void moveScroll(float x, float y, boolean predict) {
+        float xVelocity = 0;
+        float yVelocity = 0;
+        if (vTracker != null) {
+            vTracker.computeCurrentVelocity(1000);
+            xVelocity = vTracker.getXVelocity();
+            yVelocity = vTracker.getYVelocity();
+        }
+        if (predict) {
+            x += xVelocity * PREDICTION_MILLIS / 1000;
+            y += yVelocity * PREDICTION_MILLIS / 1000;
+        }
+        //每次移动产生一个差值累积到图片位置上
+        float xDiff = x - mLastMovePoint.x;
+        float yDiff = y - mLastMovePoint.y;
+        scrollBy(xDiff, yDiff);
+        //横向滑动时图片已经到了边缘,把手势交给外层的ViewPager翻页
+        if (Math.abs(xDiff) > Math.abs(yDiff) && !canScrollHorizontally(xDiff > 0 ? -1 : 1)) {
+            requestParentDisallowIntercept(false);
+        }
+        //记录新的移动点,预测的误差在下一次移动时修正
+        mLastMovePoint.set(x, y);
+        //按当前速度推算现在松手时会停在哪里,提前解码
+        if (vTracker != null) {
+            prefetchFlingEnd(xVelocity, yVelocity);
+        }
+    }
 
-                    if (yVelocity > 320 && !isFlingout) {
-                        flingOut(v > 0, yVelocity);
-                        return false;
-                    }
+    /**
+     * 缩放模式下两个手指移动到指定位置
+     */
+    private void moveScale(float x1, float y1, float x2, float y2) {
+        //两个缩放点间的距离
+        float distance = MathUtils.getDistance(x1, y1, x2, y2);
+        //保存缩放点中点
+        float[] lineCenter = MathUtils.getCenterPoint(x1, y1, x2, y2, mTempPoint);
+        mLastMovePoint.set(lineCenter[0], lineCenter[1]);
+        //处理缩放
+        scale(mScaleCenter, mScaleBase, distance, mLastMovePoint);
+    }
 
-                    setTranslationY(getTranslationY() + v);
+    /**
+     * 单指上下拖动关闭
+     *
+     * @param predict 是否按当前速度预测触摸点
+     * @return 速度足够快开始甩出时返回false
+     */
+    private boolean moveDrag(float x, float y, float rawY, boolean predict) {
+        vTracker.computeCurrentVelocity(100);
+        float yVelocity = Math.abs(vTracker.getYVelocity());
+        //记录新的移动点
+        mLastMovePoint.set(x, y);
 
-                    lastRawY = rawY;
-                    //在缩放模式下移动
+        float v = rawY - lastRawY;
+
+        if (yVelocity > 320 && !isFlingout) {
+            flingOut(v > 0, yVelocity);
+            return false;
+        }
+        if (predict) {
+            rawY += vTracker.getYVelocity() * PREDICTION_MILLIS / 100;
+            v = rawY - lastRawY;
+        }
 
-                    float movement = event.getRawY() - startRawY;
-                    float alp = 1.0f - Math.abs(movement / halfWindowHeight);
+        setTranslationY(getTranslationY() + v);
 
-                    float viewAlpha = alp < 0.5f ? 0.5f : alp;
-                    setBackgroudAlpha(viewAlpha);
+        lastRawY = rawY;
 
-                    mPinchMode = DRAG_MODE_SCROLL;
-                }
-            }
-        }
+        float movement = rawY - startRawY;
+        float alp = 1.0f - Math.abs(movement / halfWindowHeight);
 
+        float viewAlpha = alp < 0.5f ? 0.5f : alp;
+        setBackgroudAlpha(viewAlpha);
 
+        mPinchMode = DRAG_MODE_SCROLL;
         return true;
     }
 
-    ViewPropertyAnimator viewPropertyAnimator = null;
 
-    private void flingOut(boolean down, float speed) {
-        isFlingout = true;
-        Log.d(TAG, "flingOut: .....transY:" + getTranslationY() + ", isFlingout:" + isFlingout);
+    ////////////////////////////////批量输入////////////////////////////////
 
-        ValueAnimator valueAnimator = ValueAnimator.ofFloat(getTranslationY(), down ? 2000 : -2000);
-        float distance = 2000 - Math.abs(getTranslationY());
-        int duration = (int) (distance / Math.abs(speed) * 100);
-        Log.d(TAG, "flingOut: duration:" + duration);
-        valueAnimator.setDuration(duration);
-        valueAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                Float animatedValue = (Float) animation.getAnimatedValue();
-                //Log.d(TAG, "flingOut  onAnimationUpdate: animatedValue:" + animatedValue);
-                setTranslationY(animatedValue);
-            }
-        });
+    /**
+     * 触摸点预测的时间,毫秒
+     * <p>
+     * 大约半帧,预测太远时手指变向会明显过冲.
+     */
+    private static final float PREDICTION_MILLIS = 8f;
 
-        valueAnimator.addListener(new Animator.AnimatorListener() {
-            @Override
-            public void onAnimationStart(Animator animation) {
+    /**
+     * 是否按帧合并移动事件
+     *
+     * @see #setBatchedInputEnabled(boolean)
+     */
+    private boolean mBatchedInput;
 
-            }
+    /**
+     * 是否预测触摸点
+     *
+     * @see #setTouchPredictionEnabled(boolean)
+     */
+    private boolean mTouchPrediction;
 
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                if (activity != null) {
-                    activity.finish();
-                    activity.overridePendingTransition(R.anim.fade_in, R.anim.fade_out);
-                }
-                isFlingout = false;
-               // Log.d(TAG, "flingOut.onAnimationEnd: .....isFlingout:" + isFlingout + ", transY:" + getTranslationY());
-            }
+    /**
+     * 有还没应用的移动事件
+     */
+    private boolean mPendingMove;
 
-            @Override
-            public void onAnimationCancel(Animator animation) {
+    /**
+     * 积攒的移动事件里最新的位置,控件坐标,依次为两个手指的x,y
+     */
+    private final float[] mPendingTouch = new float[4];
 
-            }
+    private int mPendingPointerCount;
 
-            @Override
-            public void onAnimationRepeat(Animator animation) {
+    private float mPendingRawY;
 
-            }
-        });
+    /**
+     * 最近的移动事件带有历史采样,说明触摸采样率高于事件分发频率
+     */
+    private boolean mHighRateInput;
 
-        valueAnimator.start();
+    /**
+     * 设置是否按帧合并移动事件
+     * <p>
+     * 开启后移动事件只记录位置,在下一帧开始时一次性应用:矩阵只更新一次,速度只计算一次,只重绘一次.
+     * 速度跟踪器仍然收到每个事件和其中的全部历史采样.
+     * 按下,抬起等其他事件之前会先应用积攒的移动,手势的结果和逐个处理相同.
+     * 默认关闭.
+     */
+    public void setBatchedInputEnabled(boolean enabled) {
+        if (!enabled) {
+            applyPendingMove(false);
+        }
+        mBatchedInput = enabled;
+    }
 
-//        viewPropertyAnimator = this.animate().translationY(-1200).setDuration(500);
-//        viewPropertyAnimator.setListener(new Animator.AnimatorListener() {
-//            @Override
-//            public void onAnimationStart(Animator animation) {
-//                Log.d(TAG, "flingOut.onAnimationStart: .....transY:" + getTranslationY());
-//            }
-//
-//            @Override
-//            public void onAnimationEnd(Animator animation) {
-//                if (activity != null) {
-//                    activity.finish();
-//                    activity.overridePendingTransition(R.anim.fade_in, R.anim.fade_out);
-//                }
-//                isFlingout = false;
-//                Log.d(TAG, "flingOut.onAnimationEnd: .....isFlingout:" + isFlingout + ", transY:" + getTranslationY());
-//            }
-//
-//            @Override
-//            public void onAnimationCancel(Animator animation) {
-//                Log.d(TAG, "flingOut.onAnimationCancel: .....isFlingout:" + isFlingout);
-//            }
-//
-//            @Override
-//            public void onAnimationRepeat(Animator animation) {
-//
-//            }
-//        });
-//        viewPropertyAnimator.start();
+    /**
+     * 设置是否预测触摸点
+     * <p>
+     * 只在按帧合并移动事件时有效,只用于单指的滚动和拖动.
+     * 触摸采样率高于帧率时,按当前速度把触摸点向前推算{@link #PREDICTION_MILLIS},抵消一部分从采样到显示的延迟.
+     * 下一帧按实际位置修正,误差不会累积,抬起时一定停在实际位置.
+     * 默认关闭.
+     */
+    public void setTouchPredictionEnabled(boolean enabled) {
+        mTouchPrediction = enabled;
     }
 
-    private void sprintBack() {
-        Log.d(TAG, "sprintBack: ...");
-        this.animate().translationY(0).alpha(1).setDuration(200).start();
+    /**
+     * 记录移动事件,等下一帧统一应用
+     */
+    private void queueMove(MotionEvent event) {
+        mPendingPointerCount = Math.min(event.getPointerCount(), 2);
+        for (int i = 0; i < mPendingPointerCount; i++) {
+            mPendingTouch[i * 2] = event.getX(i);
+            mPendingTouch[i * 2 + 1] = event.getY(i);
+        }
+        mPendingRawY = event.getRawY();
+        mHighRateInput = event.getHistorySize() > 0;
+        mPendingMove = true;
+        mAnimationEngine.requestInputFrame();
+    }
+
+    /**
+     * 应用积攒的移动事件
+     * <p>
+     * 在帧回调里执行,或者在处理其他触摸事件之前执行.
+     * 积攒期间不会有改变模式的事件,所以按当前模式选择的处理和记录时相同.
+     *
+     * @param predict 是否预测触摸点,采样率不高时忽略
+     */
+    private void applyPendingMove(boolean predict) {
+        if (!mPendingMove) {
+            return;
+        }
+        mPendingMove = false;
+        predict = predict && mHighRateInput;
+        if (mPinchMode == PINCH_MODE_SCROLL) {
+            moveScroll(mPendingTouch[0], mPendingTouch[1], predict);
+        } else if (mPinchMode == PINCH_MODE_SCALE && mPendingPointerCount > 1) {
+            moveScale(mPendingTouch[0], mPendingTouch[1], mPendingTouch[2], mPendingTouch[3]);
+        } else if (mPendingPointerCount == 1) {
+            moveDrag(mPendingTouch[0], mPendingTouch[1], mPendingRawY, predict);
+        }
+    }
+
+    /**
+     * 图片在水平方向上还能不能移动
+     * <p>
+     * 放在ViewPager里时,ViewPager用它判断横向滑动是交给图片还是翻页.
+     * 双指缩放过程中总是返回true.
+     *
+     * @param direction 负数检查图片能否向右移动,正数检查图片能否向左移动
+     */
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        if (mPinchMode == PINCH_MODE_SCALE) {
+            return true;
+        }
+        if (!isReady()) {
+            return false;
+        }
+        RectF bound = obtainImageBound();
+        if (direction < 0) {
+            return Math.round(bound.left) < 0;
+        } else {
+            return Math.round(bound.right) > getWidth();
+        }
+    }
+
+    /**
+     * 设置外层是否可以拦截触摸事件
+     *
+     * @param disallow 为true时外层不拦截,手势完全由图片处理
+     */
+    private void requestParentDisallowIntercept(boolean disallow) {
         ViewParent parent = getParent();
-        if (parent instanceof ViewGroup) {
-            ViewGroup viewGroup = (ViewGroup) parent;
-            viewGroup.animate().alpha(1).setDuration(200).start();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(disallow);
+        }
+    }
+
+    private void flingOut(boolean down, float speed) {
+        isFlingout = true;
+        if (SpanTracer.ENABLED) {
+            SpanTracer.instant(SpanTracer.EVENT_FLING_OUT);
         }
+        float distance = 2000 - Math.abs(getTranslationY());
+        int duration = (int) (distance / Math.abs(speed) * 100);
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_TRANSLATION_Y, getTranslationY(), down ? 2000 : -2000, duration, mFinishAction);
+    }
+
+    private void sprintBack() {
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_TRANSLATION_Y, getTranslationY(), 0, 200, null);
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_ALPHA, getAlpha(), 1, 200, null);
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_BACKGROUND_ALPHA, getBackgroundAlpha(), 1, 200, null);
     }
 
     private void setBackgroudAlpha(float alpha) {
@@ -791,9 +1554,17 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         }
     }
 
+    private float getBackgroundAlpha() {
+        ViewParent parent = getParent();
+        if (parent instanceof ViewGroup) {
+            return ((ViewGroup) parent).getAlpha();
+        }
+        return 1f;
+    }
+
 
     private void animateBack() {
-        animate().translationY(0).setDuration(180).start();
+        mAnimationEngine.animateProperty(AnimationEngine.PROPERTY_TRANSLATION_Y, getTranslationY(), 0, 180, null);
     }
 
     /**
@@ -806,59 +1577,37 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
      * @return 是否改变了位置
      */
     private boolean scrollBy(float xDiff, float yDiff) {
+        boolean result = translateBy(xDiff, yDiff);
+        //被限制到完全没有移动就不需要重绘
+        if (result) {
+            invalidateImage();
+        }
+        return result;
+    }
+
+    /**
+     * 让图片移动一段距离,不触发重绘
+     * <p>
+     * 惯性动画每帧移动后由动画引擎统一重绘.
+     *
+     * @param xDiff 移动距离
+     * @param yDiff 移动距离
+     * @return 是否改变了位置
+     * @see #scrollBy(float, float)
+     */
+    private boolean translateBy(float xDiff, float yDiff) {
         if (!isReady()) {
             return false;
         }
-        //原图方框
-        RectF bound = MathUtils.rectFTake();
-        getImageBound(bound);
-        //控件大小
-        float displayWidth = getWidth();
-        float displayHeight = getHeight();
-        //如果当前图片宽度小于控件宽度，则不能移动
-        if (bound.right - bound.left < displayWidth) {
-            xDiff = 0;
-            //如果图片左边在移动后超出控件左边
-        } else if (bound.left + xDiff > 0) {
-            //如果在移动之前是没超出的，计算应该移动的距离
-            if (bound.left < 0) {
-                xDiff = -bound.left;
-                //否则无法移动
-            } else {
-                xDiff = 0;
-            }
-            //如果图片右边在移动后超出控件右边
-        } else if (bound.right + xDiff < displayWidth) {
-            //如果在移动之前是没超出的，计算应该移动的距离
-            if (bound.right > displayWidth) {
-                xDiff = displayWidth - bound.right;
-                //否则无法移动
-            } else {
-                xDiff = 0;
-            }
-        }
-        //以下同理
-        if (bound.bottom - bound.top < displayHeight) {
-            yDiff = 0;
-        } else if (bound.top + yDiff > 0) {
-            if (bound.top < 0) {
-                yDiff = -bound.top;
-            } else {
-                yDiff = 0;
-            }
-        } else if (bound.bottom + yDiff < displayHeight) {
-            if (bound.bottom > displayHeight) {
-                yDiff = displayHeight - bound.bottom;
-            } else {
-                yDiff = 0;
-            }
-        }
-        MathUtils.rectFGiven(bound);
+        //限制在可移动范围内
+        PointF diff = MathUtils.pointFTake(xDiff, yDiff);
+        MathUtils.limitScroll(obtainImageBound(), getWidth(), getHeight(), diff);
+        xDiff = diff.x;
+        yDiff = diff.y;
+        MathUtils.pointFGiven(diff);
         //应用移动变换
         mOuterMatrix.postTranslate(xDiff, yDiff);
-//        dispatchOuterMatrixChanged();
-        //触发重绘
-        invalidate();
+        dispatchOuterMatrixTranslated(xDiff, yDiff);
         //检查是否有变化
         if (xDiff != 0 || yDiff != 0) {
             return true;
@@ -867,6 +1616,59 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         }
     }
 
+    /**
+     * 预测惯性滑动的停止位置,提前解码那里的图块
+     * <p>
+     * 速度按时间指数衰减,总位移可以直接算出来,
+     * 再按可移动范围修正就是惯性动画最终停下的位置.
+     * 只在分块显示模式下有效.
+     *
+     * @param vx x方向速度,像素/秒
+     * @param vy y方向速度,像素/秒
+     * @see TiledImage#prefetch(Matrix, int, int)
+     */
+    private void prefetchFlingEnd(float vx, float vy) {
+        if (mTiledImage == null || !isReady()) {
+            return;
+        }
+        float speed = MathUtils.getDistance(0, 0, vx, vy);
+        if (speed <= FLING_MIN_VELOCITY) {
+            return;
+        }
+        float ratio = getFlingDistance(speed) / speed;
+        RectF bound = MathUtils.rectFTake();
+        getImageBound(bound);
+        PointF diff = MathUtils.pointFTake(vx * ratio, vy * ratio);
+        MathUtils.limitScroll(bound, getWidth(), getHeight(), diff);
+        Matrix matrix = MathUtils.matrixTake();
+        getCurrentImageMatrix(matrix);
+        matrix.postTranslate(diff.x, diff.y);
+        mTiledImage.prefetch(matrix, getWidth(), getHeight());
+        MathUtils.matrixGiven(matrix);
+        MathUtils.pointFGiven(diff);
+        MathUtils.rectFGiven(bound);
+    }
+
+    /**
+     * 计算惯性动画的总位移
+     *
+     * @param speed 初速度,像素/秒
+     * @return 总位移, 像素
+     * @see AnimationEngine#getFlingDistance(float, float, float)
+     */
+    static float getFlingDistance(float speed) {
+        return AnimationEngine.getFlingDistance(speed, FLING_DECAY, FLING_MIN_VELOCITY);
+    }
+
+    /**
+     * 结束预取,预取的图块如果没有显示在下次绘制时释放
+     */
+    private void clearPrefetch() {
+        if (mTiledImage != null) {
+            mTiledImage.clearPrefetch();
+        }
+    }
+
     /**
      * 记录缩放前的一些信息
      * <p>
@@ -883,12 +1685,12 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         //理论上图片应该是等比的,x和y方向比例相同
         //但是有可能外部设定了不规范的值.
         //但是后续的scale操作会将xy不等的缩放值纠正,改成和x方向相同
-        mScaleBase = MathUtils.getMatrixScale(mOuterMatrix)[0] / MathUtils.getDistance(x1, y1, x2, y2);
+        mScaleBase = MathUtils.getMatrixScale(mOuterMatrix, mTempScale)[0] / MathUtils.getDistance(x1, y1, x2, y2);
         //两手指的中点在屏幕上落在了图片的某个点上,图片上的这个点在经过总矩阵变换后和手指中点相同
         //现在我们需要得到图片上这个点在图片是fit center状态下在屏幕上的位置
         //因为后续的计算都是基于图片是fit center状态下进行变换
         //所以需要把两手指中点除以外层变换矩阵得到mScaleCenter
-        float[] center = MathUtils.inverseMatrixPoint(MathUtils.getCenterPoint(x1, y1, x2, y2), mOuterMatrix);
+        float[] center = MathUtils.inverseMatrixPoint(MathUtils.getCenterPoint(x1, y1, x2, y2, mTempPoint), mOuterMatrix, mTempPoint);
         mScaleCenter.set(center[0], center[1]);
     }
 
@@ -916,9 +1718,15 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         //应用变换
         mOuterMatrix.set(matrix);
         MathUtils.matrixGiven(matrix);
-//        dispatchOuterMatrixChanged();
+        dispatchOuterMatrixChanged();
+        //外部矩阵为以缩放中心缩放再平移到手指中点,方框可以直接由fit center状态的方框算出
+        obtainInnerMatrix();
+        mImageBound.set(mInnerImageBound);
+        MathUtils.scaleRect(mImageBound, scale, scaleCenter.x, scaleCenter.y);
+        mImageBound.offset(lineCenter.x - scaleCenter.x, lineCenter.y - scaleCenter.y);
+        mImageBoundValid = true;
         //重绘
-        invalidate();
+        invalidateImage();
     }
 
 
@@ -934,62 +1742,34 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         }
         //是否修正了位置
         boolean change = false;
-        //获取图片整体的变换矩阵
-        Matrix currentMatrix = MathUtils.matrixTake();
-        getCurrentImageMatrix(currentMatrix);
         //整体缩放比例
-        float currentScale = MathUtils.getMatrixScale(currentMatrix)[0];
+        float currentScale = MathUtils.getMatrixScale(obtainCurrentImageMatrix(), mTempScale)[0];
         //第二层缩放比例
-        float outerScale = MathUtils.getMatrixScale(mOuterMatrix)[0];
+        float outerScale = MathUtils.getMatrixScale(mOuterMatrix, mTempScale)[0];
         //控件大小
         float displayWidth = getWidth();
         float displayHeight = getHeight();
         //最大缩放比例
         float maxScale = getMaxScale();
-        //比例修正
-        float scalePost = 1f;
         //位置修正
         float postX = 0;
         float postY = 0;
 //        Log.d(TAG, "scaleEnd: currentScale:" + currentScale + ", outerScale:" + outerScale + ", displayWidth:" + displayWidth + ", maxScale:" + maxScale);
-        //如果整体缩放比例大于最大比例，进行缩放修正
-        if (currentScale > maxScale) {
-            scalePost = maxScale / currentScale;
-        }
-        //如果缩放修正后整体导致第二层缩放小于1（就是图片比fit center状态还小），重新修正缩放
-        if (outerScale * scalePost < 1f) {
-            scalePost = 1f / outerScale;
-        }
-
-        // 如果需要双手放大后, 保持图片不回弹变小, 需要注释掉下面的if语句
-        if (outerScale * scalePost > 1f) {
-            scalePost = 1f / outerScale;
-        }
+        //比例修正,整体缩放比例不超过最大比例,第二层缩放不小于1
+        float scalePost = MathUtils.limitScale(currentScale, outerScale, maxScale);
         //如果缩放修正不为1，说明进行了修正
         if (scalePost != 1f) {
             change = true;
         }
-        //尝试根据缩放点进行缩放修正
-        Matrix testMatrix = MathUtils.matrixTake(currentMatrix);
-        testMatrix.postScale(scalePost, scalePost, mLastMovePoint.x, mLastMovePoint.y);
-        RectF testBound = MathUtils.rectFTake(0, 0, getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
-        //获取缩放修正后的图片方框
-        testMatrix.mapRect(testBound);
+        //尝试根据缩放点进行缩放修正,获取缩放修正后的图片方框
+        RectF testBound = MathUtils.rectFTake(obtainImageBound());
+        MathUtils.scaleRect(testBound, scalePost, mLastMovePoint.x, mLastMovePoint.y);
         //检测缩放修正后位置有无超出，如果超出进行位置修正
-        if (testBound.right - testBound.left < displayWidth) {
-            postX = displayWidth / 2f - (testBound.right + testBound.left) / 2f;
-        } else if (testBound.left > 0) {
-            postX = -testBound.left;
-        } else if (testBound.right < displayWidth) {
-            postX = displayWidth - testBound.right;
-        }
-        if (testBound.bottom - testBound.top < displayHeight) {
-            postY = displayHeight / 2f - (testBound.bottom + testBound.top) / 2f;
-        } else if (testBound.top > 0) {
-            postY = -testBound.top;
-        } else if (testBound.bottom < displayHeight) {
-            postY = displayHeight - testBound.bottom;
-        }
+        PointF post = MathUtils.pointFTake(0, 0);
+        MathUtils.limitBound(testBound, displayWidth, displayHeight, post);
+        postX = post.x;
+        postY = post.y;
+        MathUtils.pointFGiven(post);
         //如果位置修正不为0，说明进行了修正
         if (postX != 0 || postY != 0) {
             change = true;
@@ -1004,15 +1784,12 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
             //清理当前可能正在执行的动画
             cancelAllAnimator();
             //启动矩阵动画
-            mScaleAnimator = new ScaleAnimator(mOuterMatrix, animEnd);
-            mScaleAnimator.start();
+            mAnimationEngine.animateTransform(mOuterMatrix, animEnd, SCALE_ANIMATOR_DURATION);
             //清理临时变量
             MathUtils.matrixGiven(animEnd);
         }
         //清理临时变量
         MathUtils.rectFGiven(testBound);
-        MathUtils.matrixGiven(testMatrix);
-        MathUtils.matrixGiven(currentMatrix);
 
         if (scalePost > 1) {
             return 0;
@@ -1038,412 +1815,17 @@ public class PinchImageView extends android.support.v7.widget.AppCompatImageView
         }
         //清理当前可能正在执行的动画
         cancelAllAnimator();
-        //创建惯性动画
-        //FlingAnimator单位为 像素/帧,一秒60帧
-        mFlingAnimator = new FlingAnimator(vx / 60f, vy / 60f);
-        mFlingAnimator.start();
+        //启动惯性动画,按帧时间计算位移,和刷新率无关
+        mAnimationEngine.fling(vx, vy, FLING_DECAY, FLING_MIN_VELOCITY, mClearPrefetchAction);
+        //停止位置在开始时就能确定,提前解码
+        prefetchFlingEnd(vx, vy);
     }
 
     /**
      * 停止所有手势动画
      */
     private void cancelAllAnimator() {
-        if (mScaleAnimator != null) {
-            mScaleAnimator.cancel();
-            mScaleAnimator = null;
-        }
-        if (mFlingAnimator != null) {
-            mFlingAnimator.cancel();
-            mFlingAnimator = null;
-        }
-    }
-
-    /**
-     * 惯性动画
-     * <p>
-     * 速度逐渐衰减,每帧速度衰减为原来的FLING_DAMPING_FACTOR,当速度衰减到小于1时停止.
-     * 当图片不能移动时,动画停止.
-     */
-    private class FlingAnimator extends ValueAnimator implements ValueAnimator.AnimatorUpdateListener {
-
-        /**
-         * 速度向量
-         */
-        private float[] mVector;
-
-        /**
-         * 创建惯性动画
-         * <p>
-         * 参数单位为 像素/帧
-         *
-         * @param vectorX 速度向量
-         * @param vectorY 速度向量
-         */
-        public FlingAnimator(float vectorX, float vectorY) {
-            super();
-            setFloatValues(0, 1f);
-            setDuration(1000000);
-            addUpdateListener(this);
-            mVector = new float[]{vectorX, vectorY};
-        }
-
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            //移动图像并给出结果
-            boolean result = scrollBy(mVector[0], mVector[1]);
-            //衰减速度
-            mVector[0] *= FLING_DAMPING_FACTOR;
-            mVector[1] *= FLING_DAMPING_FACTOR;
-            //速度太小或者不能移动了就结束
-            if (!result || MathUtils.getDistance(0, 0, mVector[0], mVector[1]) < 1f) {
-                animation.cancel();
-            }
-        }
-    }
-
-    /**
-     * 缩放动画
-     * <p>
-     * 在给定时间内从一个矩阵的变化逐渐动画到另一个矩阵的变化
-     */
-    private class ScaleAnimator extends ValueAnimator implements ValueAnimator.AnimatorUpdateListener {
-
-        /**
-         * 开始矩阵
-         */
-        private float[] mStart = new float[9];
-
-        /**
-         * 结束矩阵
-         */
-        private float[] mEnd = new float[9];
-
-        /**
-         * 中间结果矩阵
-         */
-        private float[] mResult = new float[9];
-
-        /**
-         * 构建一个缩放动画
-         * <p>
-         * 从一个矩阵变换到另外一个矩阵
-         *
-         * @param start 开始矩阵
-         * @param end   结束矩阵
-         */
-        public ScaleAnimator(Matrix start, Matrix end) {
-            this(start, end, SCALE_ANIMATOR_DURATION);
-        }
-
-        /**
-         * 构建一个缩放动画
-         * <p>
-         * 从一个矩阵变换到另外一个矩阵
-         *
-         * @param start    开始矩阵
-         * @param end      结束矩阵
-         * @param duration 动画时间
-         */
-        public ScaleAnimator(Matrix start, Matrix end, long duration) {
-            super();
-            setFloatValues(0, 1f);
-            setDuration(duration);
-            addUpdateListener(this);
-            start.getValues(mStart);
-            end.getValues(mEnd);
-        }
-
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            //获取动画进度
-            float value = (Float) animation.getAnimatedValue();
-            //根据动画进度计算矩阵中间插值
-            for (int i = 0; i < 9; i++) {
-                mResult[i] = mStart[i] + (mEnd[i] - mStart[i]) * value;
-            }
-            //设置矩阵并重绘
-            mOuterMatrix.setValues(mResult);
-//            dispatchOuterMatrixChanged();
-            invalidate();
-        }
-    }
-
-
-    ////////////////////////////////防止内存抖动复用对象////////////////////////////////
-
-    /**
-     * 对象池
-     * <p>
-     * 防止频繁new对象产生内存抖动.
-     * 由于对象池最大长度限制,如果吞度量超过对象池容量,仍然会发生抖动.
-     * 此时需要增大对象池容量,但是会占用更多内存.
-     *
-     * @param <T> 对象池容纳的对象类型
-     */
-    private static abstract class ObjectsPool<T> {
-
-        /**
-         * 对象池的最大容量
-         */
-        private int mSize;
-
-        /**
-         * 对象池队列
-         */
-        private Queue<T> mQueue;
-
-        /**
-         * 创建一个对象池
-         *
-         * @param size 对象池最大容量
-         */
-        public ObjectsPool(int size) {
-            mSize = size;
-            mQueue = new LinkedList<T>();
-        }
-
-        /**
-         * 获取一个空闲的对象
-         * <p>
-         * 如果对象池为空,则对象池自己会new一个返回.
-         * 如果对象池内有对象,则取一个已存在的返回.
-         * take出来的对象用完要记得调用given归还.
-         * 如果不归还,让然会发生内存抖动,但不会引起泄漏.
-         *
-         * @return 可用的对象
-         * @see #given(Object)
-         */
-        public T take() {
-            //如果池内为空就创建一个
-            if (mQueue.size() == 0) {
-                return newInstance();
-            } else {
-                //对象池里有就从顶端拿出来一个返回
-                return resetInstance(mQueue.poll());
-            }
-        }
-
-        /**
-         * 归还对象池内申请的对象
-         * <p>
-         * 如果归还的对象数量超过对象池容量,那么归还的对象就会被丢弃.
-         *
-         * @param obj 归还的对象
-         * @see #take()
-         */
-        public void given(T obj) {
-            //如果对象池还有空位子就归还对象
-            if (obj != null && mQueue.size() < mSize) {
-                mQueue.offer(obj);
-            }
-        }
-
-        /**
-         * 实例化对象
-         *
-         * @return 创建的对象
-         */
-        abstract protected T newInstance();
-
-        /**
-         * 重置对象
-         * <p>
-         * 把对象数据清空到就像刚创建的一样.
-         *
-         * @param obj 需要被重置的对象
-         * @return 被重置之后的对象
-         */
-        abstract protected T resetInstance(T obj);
-    }
-
-    /**
-     * 矩阵对象池
-     */
-    private static class MatrixPool extends ObjectsPool<Matrix> {
-
-        public MatrixPool(int size) {
-            super(size);
-        }
-
-        @Override
-        protected Matrix newInstance() {
-            return new Matrix();
-        }
-
-        @Override
-        protected Matrix resetInstance(Matrix obj) {
-            obj.reset();
-            return obj;
-        }
-    }
-
-    /**
-     * 矩形对象池
-     */
-    private static class RectFPool extends ObjectsPool<RectF> {
-
-        public RectFPool(int size) {
-            super(size);
-        }
-
-        @Override
-        protected RectF newInstance() {
-            return new RectF();
-        }
-
-        @Override
-        protected RectF resetInstance(RectF obj) {
-            obj.setEmpty();
-            return obj;
-        }
-    }
-
-
-    ////////////////////////////////数学计算工具类////////////////////////////////
-
-    /**
-     * 数学计算工具类
-     */
-    public static class MathUtils {
-
-        /**
-         * 矩阵对象池
-         */
-        private static MatrixPool mMatrixPool = new MatrixPool(16);
-
-        /**
-         * 获取矩阵对象
-         */
-        public static Matrix matrixTake() {
-            return mMatrixPool.take();
-        }
-
-        /**
-         * 获取某个矩阵的copy
-         */
-        public static Matrix matrixTake(Matrix matrix) {
-            Matrix result = mMatrixPool.take();
-            if (matrix != null) {
-                result.set(matrix);
-            }
-            return result;
-        }
-
-        /**
-         * 归还矩阵对象
-         */
-        public static void matrixGiven(Matrix matrix) {
-            mMatrixPool.given(matrix);
-        }
-
-        /**
-         * 矩形对象池
-         */
-        private static RectFPool mRectFPool = new RectFPool(16);
-
-        /**
-         * 获取矩形对象
-         */
-        public static RectF rectFTake() {
-            return mRectFPool.take();
-        }
-
-        /**
-         * 按照指定值获取矩形对象
-         */
-        public static RectF rectFTake(float left, float top, float right, float bottom) {
-            RectF result = mRectFPool.take();
-            result.set(left, top, right, bottom);
-            return result;
-        }
-
-        /**
-         * 获取某个矩形的副本
-         */
-        public static RectF rectFTake(RectF rectF) {
-            RectF result = mRectFPool.take();
-            if (rectF != null) {
-                result.set(rectF);
-            }
-            return result;
-        }
-
-        /**
-         * 归还矩形对象
-         */
-        public static void rectFGiven(RectF rectF) {
-            mRectFPool.given(rectF);
-        }
-
-        /**
-         * 获取两点之间距离
-         *
-         * @param x1 点1
-         * @param y1 点1
-         * @param x2 点2
-         * @param y2 点2
-         * @return 距离
-         */
-        public static float getDistance(float x1, float y1, float x2, float y2) {
-            float x = x1 - x2;
-            float y = y1 - y2;
-            return (float) Math.sqrt(x * x + y * y);
-        }
-
-        /**
-         * 获取两点的中点
-         *
-         * @param x1 点1
-         * @param y1 点1
-         * @param x2 点2
-         * @param y2 点2
-         * @return float[]{x, y}
-         */
-        public static float[] getCenterPoint(float x1, float y1, float x2, float y2) {
-            return new float[]{(x1 + x2) / 2f, (y1 + y2) / 2f};
-        }
-
-        /**
-         * 获取矩阵的缩放值
-         *
-         * @param matrix 要计算的矩阵
-         * @return float[]{scaleX, scaleY}
-         */
-        public static float[] getMatrixScale(Matrix matrix) {
-            if (matrix != null) {
-                float[] value = new float[9];
-                matrix.getValues(value);
-                return new float[]{value[0], value[4]};
-            } else {
-                return new float[2];
-            }
-        }
-
-        /**
-         * 计算点除以矩阵的值
-         * <p>
-         * matrix.mapPoints(unknownPoint) -> point
-         * 已知point和matrix,求unknownPoint的值.
-         *
-         * @param point
-         * @param matrix
-         * @return unknownPoint
-         */
-        public static float[] inverseMatrixPoint(float[] point, Matrix matrix) {
-            if (point != null && matrix != null) {
-                float[] dst = new float[2];
-                //计算matrix的逆矩阵
-                Matrix inverse = matrixTake();
-                matrix.invert(inverse);
-                //用逆矩阵变换point到dst,dst就是结果
-                inverse.mapPoints(dst, point);
-                //清除临时变量
-                matrixGiven(inverse);
-                return dst;
-            } else {
-                return new float[2];
-            }
-        }
-
+        mAnimationEngine.cancelGesture();
+        clearPrefetch();
     }
-}
\ No newline at end of file
+}
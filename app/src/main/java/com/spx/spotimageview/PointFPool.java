@@ -0,0 +1,28 @@
+package com.spx.spotimageview;
+
+import android.graphics.PointF;
+
+/**
+ * 点对象池
+ */
+class PointFPool extends ObjectsPool<PointF> {
+
+    public PointFPool(int size) {
+        super(size);
+    }
+
+    public PointFPool(int size, int localCacheSize) {
+        super(size, localCacheSize);
+    }
+
+    @Override
+    protected PointF newInstance() {
+        return new PointF();
+    }
+
+    @Override
+    protected PointF resetInstance(PointF obj) {
+        obj.set(0, 0);
+        return obj;
+    }
+}
@@ -0,0 +1,28 @@
+package com.spx.spotimageview;
+
+import android.graphics.RectF;
+
+/**
+ * 矩形对象池
+ */
+class RectFPool extends ObjectsPool<RectF> {
+
+    public RectFPool(int size) {
+        super(size);
+    }
+
+    public RectFPool(int size, int localCacheSize) {
+        super(size, localCacheSize);
+    }
+
+    @Override
+    protected RectF newInstance() {
+        return new RectF();
+    }
+
+    @Override
+    protected RectF resetInstance(RectF obj) {
+        obj.setEmpty();
+        return obj;
+    }
+}
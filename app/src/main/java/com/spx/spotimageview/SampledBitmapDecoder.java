@@ -0,0 +1,188 @@
+package com.spx.spotimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按控件尺寸采样解码
+ * <p>
+ * 先只读取图片尺寸,再根据控件大小和最大放大比例算出需要的分辨率,
+ * 用inSampleSize做2的幂次采样,剩余的部分用inDensity/inTargetDensity精确缩放.
+ * 保证解码结果不会比最大放大时屏幕上能显示的像素更多.
+ * 像素格式由{@link BitmapConfigPolicy}按图片格式选择.
+ */
+public class SampledBitmapDecoder {
+
+    /**
+     * 无法获取画布限制时使用的最大bitmap边长,所有支持硬件加速的设备都能满足
+     */
+    public static final int DEFAULT_MAX_BITMAP_SIZE = 2048;
+
+    /**
+     * 画布能绘制的最大bitmap边长
+     *
+     * @see #setMaxBitmapSize(int)
+     */
+    private static volatile int sMaxBitmapSize = DEFAULT_MAX_BITMAP_SIZE;
+
+    /**
+     * 设置画布能绘制的最大bitmap边长
+     * <p>
+     * 由控件在第一次硬件加速绘制时从Canvas上读取并设置.
+     *
+     * @param size 最大边长
+     */
+    public static void setMaxBitmapSize(int size) {
+        if (size > 0) {
+            sMaxBitmapSize = size;
+        }
+    }
+
+    public static int getMaxBitmapSize() {
+        return sMaxBitmapSize;
+    }
+
+    /**
+     * 只读取图片尺寸,不解码像素
+     *
+     * @return 填充了outWidth, outHeight, outMimeType的options
+     */
+    public static BitmapFactory.Options decodeBounds(Context context, ImageSource source) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream inputStream = source.open(context);
+        try {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+        return options;
+    }
+
+    /**
+     * 计算原图需要缩放到的比例
+     * <p>
+     * 以fit center状态下的比例乘上最大放大比例为准,不放大原图,并且不超过画布的最大bitmap尺寸.
+     *
+     * @param width      原图宽度
+     * @param height     原图高度
+     * @param viewWidth  控件宽度
+     * @param viewHeight 控件高度
+     * @param maxScale   控件最大放大比例
+     * @return 原图到解码结果的缩放比例, 不大于1
+     */
+    public static float calculateTargetScale(int width, int height, int viewWidth, int viewHeight, float maxScale) {
+        if (width <= 0 || height <= 0) {
+            return 1f;
+        }
+        float fitScale = Math.min((float) viewWidth / width, (float) viewHeight / height);
+        float scale = Math.min(1f, fitScale * maxScale);
+        //限制在画布能绘制的范围内
+        float clampScale = Math.min((float) sMaxBitmapSize / width, (float) sMaxBitmapSize / height);
+        return Math.min(scale, clampScale);
+    }
+
+    /**
+     * 最大放大时需要的分辨率是否超过了画布限制
+     * <p>
+     * 超过时整图解码只能降低清晰度,应该改用分块显示.
+     *
+     * @see PinchImageView#setImageRegionDecoder(android.graphics.BitmapRegionDecoder)
+     */
+    public static boolean needsTiling(int width, int height, int viewWidth, int viewHeight, float maxScale) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        float fitScale = Math.min((float) viewWidth / width, (float) viewHeight / height);
+        float scale = Math.min(1f, fitScale * maxScale);
+        return width * scale > sMaxBitmapSize || height * scale > sMaxBitmapSize;
+    }
+
+    /**
+     * 按控件尺寸解码图片
+     *
+     * @param context    上下文
+     * @param source     图片来源
+     * @param viewWidth  控件宽度
+     * @param viewHeight 控件高度
+     * @param maxScale   控件最大放大比例
+     * @param pool       复用内存的对象池,可以为null
+     * @return 解码结果, 失败返回null
+     */
+    public static Bitmap decode(Context context, ImageSource source, int viewWidth, int viewHeight, float maxScale, BitmapPool pool) throws IOException {
+        BitmapFactory.Options bounds = decodeBounds(context, source);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        float targetScale = calculateTargetScale(bounds.outWidth, bounds.outHeight, viewWidth, viewHeight, maxScale);
+        return decodeScaled(context, source, bounds, targetScale, pool);
+    }
+
+    /**
+     * 按指定比例解码图片
+     *
+     * @param bounds      读取过尺寸的options,用于获取原图尺寸和格式
+     * @param targetScale 原图到解码结果的缩放比例
+     * @param pool        复用内存的对象池,可以为null
+     * @return 解码结果, 失败返回null
+     * @see #decodeBounds(Context, ImageSource)
+     */
+    public static Bitmap decodeScaled(Context context, ImageSource source, BitmapFactory.Options bounds, float targetScale, BitmapPool pool) throws IOException {
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = TiledImage.calculateSampleSize(targetScale);
+        options.inMutable = true;
+        //整图只用于显示,允许时可以用硬件bitmap
+        BitmapConfigPolicy.apply(bounds, options, false);
+        //采样之后仍然比需要的大,再做一次精确缩放
+        int sampledWidth = width / options.inSampleSize;
+        int targetWidth = Math.max(1, Math.round(width * targetScale));
+        int targetHeight = Math.max(1, Math.round(height * targetScale));
+        if (sampledWidth > targetWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        } else {
+            options.inScaled = false;
+        }
+        //API 19以下采样解码不能复用bitmap,硬件bitmap也不能复用
+        if (pool != null && options.inMutable && Build.VERSION.SDK_INT >= 19) {
+            //解码尺寸的取整方式不确定,多留一个像素
+            pool.applyTo(options, targetWidth + 1, targetHeight + 1);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(context, source, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            //复用的bitmap不合适,不复用再解一次
+            pool.clearFrom(options);
+            bitmap = decodeStream(context, source, options);
+        }
+        if (bitmap != null) {
+            //解码结果按像素显示,不需要密度信息
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+            BitmapConfigPolicy.recordDecoded(bitmap);
+        } else if (pool != null) {
+            pool.clearFrom(options);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(Context context, ImageSource source, BitmapFactory.Options options) throws IOException {
+        InputStream inputStream = source.open(context);
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
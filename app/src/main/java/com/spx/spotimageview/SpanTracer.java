@@ -0,0 +1,189 @@
+package com.spx.spotimageview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * 性能追踪
+ * <p>
+ * 记录触摸处理,绘制,缩放结束,解码和动画帧的开始和结束,导出成Chrome trace-event格式的json,
+ * 可以用chrome://tracing或者Perfetto打开.
+ * <p>
+ * 开关是编译期常量{@link BuildConfig#TRACE_ENABLED},调用处写成
+ * <pre>
+ * if (SpanTracer.ENABLED) {
+ *     SpanTracer.begin(SpanTracer.SPAN_DRAW);
+ * }
+ * </pre>
+ * 关闭时整段代码在编译时就被去掉,不产生任何开销.
+ * 打开时事件写入预先分配的环形缓冲区,记录过程不分配内存,写满后覆盖最早的事件.
+ */
+public final class SpanTracer {
+
+    /**
+     * 是否开启,在build.gradle里配置
+     */
+    public static final boolean ENABLED = BuildConfig.TRACE_ENABLED;
+
+    public static final int SPAN_TOUCH = 0;
+    public static final int SPAN_DRAW = 1;
+    public static final int SPAN_SCALE_END = 2;
+    public static final int SPAN_DECODE = 3;
+    public static final int SPAN_FRAME = 4;
+
+    /**
+     * 以下为瞬时事件
+     */
+    public static final int EVENT_CLICK = 5;
+    public static final int EVENT_FLING_OUT = 6;
+    public static final int EVENT_EXIT = 7;
+
+    private static final String[] NAMES = {"touch", "draw", "scale_end", "decode", "frame",
+            "click", "fling_out", "exit"};
+
+    /**
+     * 环形缓冲区能保存的事件数
+     */
+    private static final int CAPACITY = 16 * 1024;
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_INSTANT = 'i';
+
+    /**
+     * 没有附加参数
+     */
+    public static final int NO_ARG = Integer.MIN_VALUE;
+
+    private static final long[] sTimes = new long[ENABLED ? CAPACITY : 0];
+    private static final long[] sThreadIds = new long[ENABLED ? CAPACITY : 0];
+    private static final byte[] sNames = new byte[ENABLED ? CAPACITY : 0];
+    private static final char[] sPhases = new char[ENABLED ? CAPACITY : 0];
+    private static final int[] sArgs = new int[ENABLED ? CAPACITY : 0];
+
+    /**
+     * 下一个写入位置
+     */
+    private static int sNext;
+
+    /**
+     * 缓冲区里的事件数,不超过CAPACITY
+     */
+    private static int sCount;
+
+    private SpanTracer() {
+    }
+
+    /**
+     * 开始一段
+     *
+     * @param span SPAN_*
+     */
+    public static void begin(int span) {
+        record(span, PHASE_BEGIN, NO_ARG);
+    }
+
+    /**
+     * 开始一段,附带一个整数参数,比如触摸事件的动作
+     */
+    public static void begin(int span, int arg) {
+        record(span, PHASE_BEGIN, arg);
+    }
+
+    /**
+     * 结束一段,必须和begin在同一个线程
+     */
+    public static void end(int span) {
+        record(span, PHASE_END, NO_ARG);
+    }
+
+    /**
+     * 记录一个瞬时事件
+     *
+     * @param event EVENT_*
+     */
+    public static void instant(int event) {
+        record(event, PHASE_INSTANT, NO_ARG);
+    }
+
+    private static void record(int name, char phase, int arg) {
+        if (!ENABLED) {
+            return;
+        }
+        long time = System.nanoTime();
+        long threadId = Thread.currentThread().getId();
+        synchronized (SpanTracer.class) {
+            int index = sNext;
+            sTimes[index] = time;
+            sThreadIds[index] = threadId;
+            sNames[index] = (byte) name;
+            sPhases[index] = phase;
+            sArgs[index] = arg;
+            sNext = (index + 1) % CAPACITY;
+            if (sCount < CAPACITY) {
+                sCount++;
+            }
+        }
+    }
+
+    /**
+     * 清空缓冲区
+     */
+    public static synchronized void clear() {
+        sNext = 0;
+        sCount = 0;
+    }
+
+    /**
+     * 按Chrome trace-event格式导出缓冲区里的事件,不清空
+     * <p>
+     * 缓冲区覆盖过时开头可能有缺少begin的end,查看工具会忽略它们.
+     */
+    public static synchronized void writeChromeTrace(Writer writer) throws IOException {
+        writer.write("{\"traceEvents\":[");
+        int start = (sNext - sCount + CAPACITY) % CAPACITY;
+        for (int i = 0; i < sCount; i++) {
+            int index = (start + i) % CAPACITY;
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("\n{\"name\":\"");
+            writer.write(NAMES[sNames[index]]);
+            writer.write("\",\"ph\":\"");
+            writer.write(sPhases[index]);
+            //chrome要求微秒
+            writer.write("\",\"ts\":");
+            writer.write(Long.toString(sTimes[index] / 1000));
+            writer.write(",\"pid\":0,\"tid\":");
+            writer.write(Long.toString(sThreadIds[index]));
+            if (sPhases[index] == PHASE_INSTANT) {
+                writer.write(",\"s\":\"t\"");
+            }
+            if (sArgs[index] != NO_ARG) {
+                writer.write(",\"args\":{\"value\":");
+                writer.write(Integer.toString(sArgs[index]));
+                writer.write('}');
+            }
+            writer.write('}');
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    /**
+     * 导出到文件
+     *
+     * @see #writeChromeTrace(Writer)
+     */
+    public static void writeChromeTrace(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.spx.spotimageview;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewPager;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 多图浏览页
+ * <p>
+ * 左右滑动翻页,每页可以单独缩放.图片放大后先在图片内移动,移到边缘再翻页.
+ */
+public class SpotGalleryActivity extends Activity {
+
+    private static final String EXTRA_SOURCE_KEYS = "source_keys";
+    private static final String EXTRA_INDEX = "index";
+
+    /**
+     * 当前页左右各保留的页数,这些页面提前解码,更远的页面被销毁并释放图片
+     */
+    private static final int PRELOAD_DISTANCE = 1;
+
+    private SpotGalleryAdapter adapter;
+
+    /**
+     * 打开多图浏览页
+     *
+     * @param sources 图集
+     * @param index   初始显示第几张
+     */
+    public static void start(Context context, List<ImageSource> sources, int index) {
+        //只传递图片来源,由浏览页按自己的尺寸解码
+        ArrayList<String> keys = new ArrayList<String>(sources.size());
+        for (ImageSource source : sources) {
+            keys.add(source.getKey());
+        }
+        Intent intent = new Intent(context, SpotGalleryActivity.class);
+        intent.putStringArrayListExtra(EXTRA_SOURCE_KEYS, keys);
+        intent.putExtra(EXTRA_INDEX, index);
+        context.startActivity(intent);
+    }
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(R.layout.spot_gallery_activity_layout);
+
+        final List<ImageSource> sources = new ArrayList<ImageSource>();
+        ArrayList<String> keys = getIntent().getStringArrayListExtra(EXTRA_SOURCE_KEYS);
+        if (keys != null) {
+            for (String key : keys) {
+                ImageSource source = ImageSource.fromKey(key);
+                if (source != null) {
+                    sources.add(source);
+                }
+            }
+        }
+        if (sources.isEmpty()) {
+            finish();
+            return;
+        }
+        int index = Math.max(0, Math.min(getIntent().getIntExtra(EXTRA_INDEX, 0), sources.size() - 1));
+
+        final TextView indicator = (TextView) findViewById(R.id.page_indicator);
+        ViewPager viewPager = (ViewPager) findViewById(R.id.view_pager);
+        adapter = new SpotGalleryAdapter(this, ((TApplication) getApplication()).getImageLoader(), sources);
+        viewPager.setOffscreenPageLimit(PRELOAD_DISTANCE);
+        viewPager.setAdapter(adapter);
+        viewPager.setCurrentItem(index, false);
+        indicator.setText((index + 1) + "/" + sources.size());
+        viewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                indicator.setText((position + 1) + "/" + sources.size());
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //页面关闭后图片不再使用,被缓存淘汰后可以复用
+        if (adapter != null) {
+            adapter.release();
+        }
+    }
+}
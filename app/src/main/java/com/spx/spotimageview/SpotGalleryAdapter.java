@@ -0,0 +1,205 @@
+package com.spx.spotimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.support.v4.view.PagerAdapter;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 多图浏览的页面适配器
+ * <p>
+ * 每页是一个PinchImageView,页面被ViewPager销毁后控件放回回收列表给新页面复用,
+ * 图片还给加载器.ViewPager只保留当前页和左右各offscreenPageLimit页,
+ * 所以不管图集有多少张,同时存在的控件和图片数量都是固定的.
+ * <p>
+ * 页面创建时在后台按屏幕尺寸解码,当前页左右的页面在翻过去之前就已经解码好了.
+ * 整图不按最大放大比例解码,放大后的细节由分块显示提供,每个屏幕外的页面只占一屏的像素.
+ */
+public class SpotGalleryAdapter extends PagerAdapter {
+
+    private static final String TAG = "SpotGalleryAdapter";
+
+    private final Context mContext;
+
+    private final ImageLoader mLoader;
+
+    private final List<ImageSource> mSources;
+
+    /**
+     * 被销毁页面留下的控件,创建页面时优先复用
+     */
+    private final LinkedList<PinchImageView> mRecycledViews = new LinkedList<PinchImageView>();
+
+    /**
+     * 当前存在的页面,key为位置
+     */
+    private final SparseArray<Page> mPages = new SparseArray<Page>();
+
+    /**
+     * 当前显示的页面
+     */
+    private Page mPrimaryPage;
+
+    public SpotGalleryAdapter(Context context, ImageLoader loader, List<ImageSource> sources) {
+        mContext = context;
+        mLoader = loader;
+        mSources = sources;
+    }
+
+    @Override
+    public int getCount() {
+        return mSources.size();
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        PinchImageView view = mRecycledViews.poll();
+        if (view == null) {
+            view = new PinchImageView(mContext);
+            view.setBitmapPool(mLoader.getBitmapPool());
+        }
+        container.addView(view, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        Page page = new Page(view);
+        mPages.put(position, page);
+        page.load(mSources.get(position), container);
+        return page;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        Page page = (Page) object;
+        mPages.remove(position);
+        if (mPrimaryPage == page) {
+            mPrimaryPage = null;
+        }
+        page.release();
+        container.removeView(page.mView);
+        mRecycledViews.add(page.mView);
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return ((Page) object).mView == view;
+    }
+
+    @Override
+    public void setPrimaryItem(ViewGroup container, int position, Object object) {
+        super.setPrimaryItem(container, position, object);
+        Page page = (Page) object;
+        if (page == mPrimaryPage) {
+            return;
+        }
+        //翻走的页面恢复到fit center,翻回来时从头看起
+        if (mPrimaryPage != null) {
+            mPrimaryPage.mView.reset();
+        }
+        mPrimaryPage = page;
+    }
+
+    /**
+     * 释放所有页面的图片,页面关闭时调用
+     */
+    public void release() {
+        for (int i = 0; i < mPages.size(); i++) {
+            mPages.valueAt(i).release();
+        }
+        mPages.clear();
+        mPrimaryPage = null;
+        mRecycledViews.clear();
+    }
+
+    /**
+     * 一个页面
+     * <p>
+     * 每次创建页面都是一个新的对象,页面销毁后到达的加载结果通过mReleased判断直接释放,
+     * 不会显示到复用后的控件上.
+     */
+    private class Page implements ImageLoader.LoadCallback {
+
+        final PinchImageView mView;
+
+        /**
+         * 当前显示的图片,页面销毁时释放
+         */
+        private Bitmap mShownBitmap;
+
+        /**
+         * 页面已经销毁
+         */
+        private boolean mReleased;
+
+        private ImageSource mSource;
+
+        Page(PinchImageView view) {
+            mView = view;
+        }
+
+        /**
+         * 内存缓存命中时直接显示,否则在后台读磁盘缓存或者按容器尺寸解码
+         *
+         * @see ImageLoader#loadScreenAsync(ImageSource, int, int, ImageLoader.LoadCallback)
+         */
+        void load(ImageSource source, ViewGroup container) {
+            mSource = source;
+            int viewWidth = container.getWidth();
+            int viewHeight = container.getHeight();
+            if (viewWidth <= 0 || viewHeight <= 0) {
+                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+                viewWidth = metrics.widthPixels;
+                viewHeight = metrics.heightPixels;
+            }
+            Bitmap cached = mLoader.loadFromMemory(source, viewWidth, viewHeight, 1f);
+            if (cached != null) {
+                onBitmapLoaded(cached);
+                return;
+            }
+            mLoader.loadScreenAsync(source, viewWidth, viewHeight, this);
+        }
+
+        /**
+         * 清空控件并释放图片
+         */
+        void release() {
+            mReleased = true;
+            //分块模式下的图块和底图还给对象池
+            mView.setImageDrawable(null);
+            mView.reset();
+            if (mShownBitmap != null) {
+                mLoader.release(mShownBitmap);
+                mShownBitmap = null;
+            }
+        }
+
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap) {
+            if (mReleased) {
+                mLoader.release(bitmap);
+                return;
+            }
+            mShownBitmap = bitmap;
+            mView.setImageBitmap(bitmap);
+        }
+
+        @Override
+        public void onRegionDecoderLoaded(BitmapRegionDecoder decoder) {
+            if (mReleased) {
+                decoder.recycle();
+                return;
+            }
+            mView.setImageRegionDecoder(decoder);
+        }
+
+        @Override
+        public void onLoadFailed(Exception e) {
+            Log.e(TAG, "onLoadFailed: " + mSource, e);
+        }
+    }
+}
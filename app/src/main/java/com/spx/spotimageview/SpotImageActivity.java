@@ -1,13 +1,24 @@
 package com.spx.spotimageview;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
 import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.ViewPropertyAnimator;
 import android.view.WindowManager;
-import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
 
 
 /**
@@ -16,7 +27,76 @@ import android.widget.ImageView;
 
 public class SpotImageActivity extends Activity {
 
-    private ImageView imageView;
+    private static final String TAG = "SpotImageActivity";
+
+    private static final String EXTRA_SOURCE_KEY = "source_key";
+    private static final String EXTRA_FROM_RECT = "from_rect";
+    private static final String EXTRA_CLICK_TIME = "click_time";
+    private static final String EXTRA_INTENT_TIME = "intent_time";
+
+    /**
+     * 打开页面时图片从缩略图位置放大的动画时间
+     */
+    private static final long ENTER_TIME = 250;
+
+    private PinchImageView imageView;
+
+    /**
+     * 当前显示的图片,页面销毁时释放
+     */
+    private Bitmap shownBitmap;
+
+    /**
+     * 页面已经销毁,后台加载的结果直接释放
+     */
+    private boolean destroyed;
+
+    /**
+     * 打开页面的缩略图在屏幕上的位置,第一次显示图片时从这里放大出来,之后置空
+     */
+    private Rect enterRect;
+
+    /**
+     * 本次打开的耗时记录,重建的页面没有
+     */
+    private OpenTrace openTrace;
+
+    /**
+     * 完整尺寸的图已经加载完成,之后到达的预览图直接释放
+     */
+    private boolean fullLoaded;
+
+    /**
+     * 打开查看页
+     * <p>
+     * 只传递图片来源的key和缩略图位置,不持有bitmap.
+     * 查看页先从共用的内存缓存获取,被淘汰了就重新解码,进程被回收后重建也能恢复.
+     *
+     * @param source   图片来源
+     * @param fromRect 缩略图在屏幕上的位置,可以为null
+     */
+    public static void start(Context context, ImageSource source, Rect fromRect) {
+        start(context, source, fromRect, 0);
+    }
+
+    /**
+     * 打开查看页并记录打开耗时
+     *
+     * @param source    图片来源
+     * @param fromRect  缩略图在屏幕上的位置,可以为null
+     * @param clickTime 点击缩略图的时刻,{@link SystemClock#uptimeMillis()}时间基准,未知时为0
+     * @see OpenTrace
+     */
+    public static void start(Context context, ImageSource source, Rect fromRect, long clickTime) {
+        Intent intent = new Intent(context, SpotImageActivity.class);
+        intent.putExtra(EXTRA_SOURCE_KEY, source.getKey());
+        if (fromRect != null) {
+            intent.putExtra(EXTRA_FROM_RECT, fromRect);
+        }
+        intent.putExtra(EXTRA_CLICK_TIME, clickTime);
+        intent.putExtra(EXTRA_INTENT_TIME, SystemClock.uptimeMillis());
+        context.startActivity(intent);
+    }
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -24,18 +104,219 @@ public class SpotImageActivity extends Activity {
 
         setContentView(R.layout.spot_image_activity_layout);
 
-        Bitmap bitmap =  ((TApplication)getApplication()).getSpotImageBitmap();
+        final ImageSource source = ImageSource.fromKey(getIntent().getStringExtra(EXTRA_SOURCE_KEY));
 
-        if (bitmap == null) {
+        if (source == null) {
             finish();
             return;
         }
+        //重建的页面不再执行打开动画,也不统计打开耗时
+        if (savedInstanceState == null) {
+            enterRect = getIntent().getParcelableExtra(EXTRA_FROM_RECT);
+            openTrace = new OpenTrace();
+            openTrace.mark(OpenTrace.MARK_CLICK, getIntent().getLongExtra(EXTRA_CLICK_TIME, 0));
+            openTrace.mark(OpenTrace.MARK_INTENT, getIntent().getLongExtra(EXTRA_INTENT_TIME, 0));
+            openTrace.mark(OpenTrace.MARK_CREATE);
+        }
+
+        imageView = (PinchImageView) findViewById(R.id.image_view);
+        imageView.setBitmapPool(((TApplication) getApplication()).getImageLoader().getBitmapPool());
+        //单独的查看页没有外层ViewPager需要实时的位置,移动按帧合并并预测触摸点
+        imageView.setBatchedInputEnabled(true);
+        imageView.setTouchPredictionEnabled(true);
 
-        imageView = (ImageView) findViewById(R.id.image_view);
+        //等控件布局完成,按控件尺寸解码
+        imageView.post(new Runnable() {
+            @Override
+            public void run() {
+                loadImage(source);
+            }
+        });
+    }
+
+    /**
+     * 按控件尺寸获取并显示图片
+     * <p>
+     * 主线程只查内存缓存,命中时直接显示.磁盘缓存和解码都在后台,页面窗口不用等图片就能先画出来.
+     * 没有命中时先显示一张小的预览图,再在后台解码完整尺寸的图片,完成后保持显示位置不变替换上去,
+     * 打开页面后第一次出图的时间只取决于预览图.
+     * 最大放大时需要的分辨率超过画布限制的大图改用分块显示.
+     */
+    private void loadImage(final ImageSource source) {
+        int viewWidth = imageView.getWidth();
+        int viewHeight = imageView.getHeight();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            viewWidth = metrics.widthPixels;
+            viewHeight = metrics.heightPixels;
+        }
+        float maxScale = imageView.getMaxScale();
+        final ImageLoader loader = ((TApplication) getApplication()).getImageLoader();
+        Bitmap cached = loader.loadFromMemory(source, viewWidth, viewHeight, maxScale);
+        if (cached != null) {
+            fullLoaded = true;
+            showImage(cached, false);
+            return;
+        }
+        Bitmap preview = loader.loadPreviewFromMemory(source);
+        if (preview != null) {
+            showImage(preview, true);
+        } else {
+            loader.loadPreviewAsync(source, viewWidth, viewHeight, new ImageLoader.LoadCallback() {
+                @Override
+                public void onBitmapLoaded(Bitmap bitmap) {
+                    //完整的图先到了,预览图不再需要
+                    if (destroyed || fullLoaded || shownBitmap != null) {
+                        loader.release(bitmap);
+                        return;
+                    }
+                    showImage(bitmap, true);
+                }
+
+                @Override
+                public void onRegionDecoderLoaded(BitmapRegionDecoder decoder) {
+                    decoder.recycle();
+                }
+
+                @Override
+                public void onLoadFailed(Exception e) {
+                    Log.w(TAG, "loadPreview: " + source, e);
+                }
+            });
+        }
+        loader.loadAsync(source, viewWidth, viewHeight, maxScale, new ImageLoader.LoadCallback() {
+            @Override
+            public void onBitmapLoaded(Bitmap bitmap) {
+                if (destroyed) {
+                    loader.release(bitmap);
+                    return;
+                }
+                fullLoaded = true;
+                if (shownBitmap == null) {
+                    showImage(bitmap, false);
+                    return;
+                }
+                Bitmap old = shownBitmap;
+                shownBitmap = bitmap;
+                imageView.swapImageBitmap(bitmap);
+                //预览图的引用已经被替换掉
+                loader.release(old);
+            }
+
+            @Override
+            public void onRegionDecoderLoaded(BitmapRegionDecoder decoder) {
+                if (destroyed) {
+                    decoder.recycle();
+                    return;
+                }
+                fullLoaded = true;
+                if (shownBitmap == null) {
+                    imageView.setImageRegionDecoder(decoder);
+                    traceFirstFrame(false);
+                    startEnterAnim();
+                    return;
+                }
+                //预览图在分块的底图解码完成之前还要显示,页面销毁时再释放
+                imageView.swapImageRegionDecoder(decoder);
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                Log.e(TAG, "loadImage: " + source, e);
+                //预览图已经显示时保留预览图
+                if (!destroyed && shownBitmap == null) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * 第一次显示图片
+     *
+     * @param preview 是否为预览图
+     */
+    private void showImage(Bitmap bitmap, boolean preview) {
+        shownBitmap = bitmap;
         imageView.setImageBitmap(bitmap);
+        traceFirstFrame(preview);
+        startEnterAnim();
+    }
+
+    /**
+     * 控件绘制出图片时记录出图时刻
+     */
+    private void traceFirstFrame(final boolean preview) {
+        if (openTrace == null) {
+            return;
+        }
+        imageView.setOnContentDrawnAction(new Runnable() {
+            @Override
+            public void run() {
+                if (openTrace != null) {
+                    openTrace.mark(OpenTrace.MARK_FIRST_FRAME);
+                    openTrace.setFirstFramePreview(preview);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        //分块模式下的图块和底图还给对象池
+        if (imageView != null) {
+            imageView.setImageDrawable(null);
+        }
+        //页面关闭后图片不再使用,被缓存淘汰后可以复用
+        if (shownBitmap != null) {
+            ((TApplication) getApplication()).getImageLoader().release(shownBitmap);
+            shownBitmap = null;
+        }
+        //对象池统计和追踪结果只在开启追踪的构建里输出
+        if (SpanTracer.ENABLED) {
+            BitmapPool pool = ((TApplication) getApplication()).getImageLoader().getBitmapPool();
+            Log.d(TAG, "onDestroy: " + pool + ", hitRate:" + pool.getHitRate());
+            Log.d(TAG, "onDestroy: " + MathUtils.getPoolStats());
+            Log.d(TAG, "onDestroy: bitmap config saved bytes:" + BitmapConfigPolicy.getBytesSaved());
+            //导出后用adb pull取出,在chrome://tracing里打开
+            File traceFile = new File(getCacheDir(), "spot_trace.json");
+            try {
+                SpanTracer.writeChromeTrace(traceFile);
+                Log.d(TAG, "onDestroy: trace written to " + traceFile);
+            } catch (IOException e) {
+                Log.e(TAG, "onDestroy: write trace failed", e);
+            }
+        }
+    }
 
+    /**
+     * 第一次显示图片时淡入,有缩略图位置时同时从缩略图位置放大出来
+     */
+    private void startEnterAnim() {
+        startAlphaAnim();
+        if (enterRect != null) {
+            imageView.zoomFromScreenRect(new RectF(enterRect), ENTER_TIME);
+            enterRect = null;
+        }
+    }
 
+    private void startAlphaAnim() {
         ViewPropertyAnimator alphaAnim = imageView.animate().alpha(1).setDuration(180);
+        alphaAnim.setListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                imageView.animate().setListener(null);
+                //淡入结束,本次打开的记录完成
+                if (openTrace != null && !destroyed) {
+                    openTrace.mark(OpenTrace.MARK_FADE_END);
+                    openTrace.finish();
+                    Log.d(TAG, "open: " + openTrace);
+                    openTrace = null;
+                }
+            }
+        });
         alphaAnim.start();
     }
 
@@ -1,7 +1,8 @@
 package com.spx.spotimageview;
 
 import android.app.Application;
-import android.graphics.Bitmap;
+
+import java.io.File;
 
 /**
  * Created by SHAOPENGXIANG on 2017/6/30.
@@ -9,15 +10,52 @@ import android.graphics.Bitmap;
 
 public class TApplication extends Application {
 
-    private Bitmap spotImageBitmap = null;
+    /**
+     * 图片内存缓存占最大可用内存的比例
+     */
+    private static final float BITMAP_CACHE_FRACTION = 1 / 8f;
+
+    /**
+     * 图片磁盘缓存的最大字节数
+     */
+    private static final long DISK_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * bitmap对象池占最大可用内存的比例
+     */
+    private static final float BITMAP_POOL_FRACTION = 1 / 16f;
+
+    /**
+     * 所有页面共用的图片加载器
+     */
+    private ImageLoader imageLoader;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        //资源id在不同版本之间可能变化,磁盘缓存按版本号分目录
+        File diskCacheDir = new File(getCacheDir(), "spot_bitmaps_" + BuildConfig.VERSION_CODE);
+        BitmapPool bitmapPool = new BitmapPool((long) (Runtime.getRuntime().maxMemory() * BITMAP_POOL_FRACTION));
+        imageLoader = new ImageLoader(this, BitmapMemoryCache.create(BITMAP_CACHE_FRACTION, bitmapPool),
+                new BitmapDiskCache(diskCacheDir, DISK_CACHE_MAX_BYTES), bitmapPool);
+        //控件在attach时自己注册
+        MemoryTrimmer.getDefault().register(imageLoader.getMemoryCache());
+        MemoryTrimmer.getDefault().register(bitmapPool);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryTrimmer.getDefault().onTrimMemory(level);
+    }
 
-    public void setSpotImageBitmap(Bitmap spotImageBitmap) {
-        this.spotImageBitmap = spotImageBitmap;
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryTrimmer.getDefault().onLowMemory();
     }
 
-    public Bitmap getSpotImageBitmap(){
-        Bitmap bitmap = spotImageBitmap;
-        spotImageBitmap = null;
-        return bitmap;
+    public ImageLoader getImageLoader() {
+        return imageLoader;
     }
 }
@@ -0,0 +1,715 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * 分块显示的大图
+ * <p>
+ * 通过BitmapRegionDecoder只解码当前可见区域的图块,内存占用只和可见区域大小相关,和原图尺寸无关.
+ * 另外持有一张按控件尺寸采样的底图,缩小状态下直接显示底图,放大时作为图块的衬底.
+ * <p>
+ * 底图和图块都通过{@link DecodeScheduler}在后台解码,完成后在主线程放入并刷新控件.
+ * 每次绘制时按图块离可见区域中心的距离更新优先级,滚出可见区域的图块如果还没开始解码就直接取消,
+ * 快速拖动时排队的解码任务数不会超过可见的图块数.
+ *
+ * @see PinchImageView#setImageRegionDecoder(BitmapRegionDecoder)
+ */
+public class TiledImage implements Trimmable {
+
+    private static final String TAG = "TiledImage";
+
+    /**
+     * 图块解码后的边长
+     */
+    public static final int TILE_SIZE = 512;
+
+    /**
+     * 优先级变化小于这个值时不重新排队,避免每帧都调整队列
+     */
+    private static final float PRIORITY_TOLERANCE = 0.05f;
+
+    /**
+     * 区域解码器
+     */
+    private final BitmapRegionDecoder mDecoder;
+
+    /**
+     * 原图尺寸
+     */
+    private final int mWidth;
+    private final int mHeight;
+
+    /**
+     * 占位drawable,给控件提供原图尺寸
+     */
+    private final PlaceholderDrawable mPlaceholder;
+
+    /**
+     * 复用图块内存的对象池,可以为null
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * 解码调度器
+     */
+    private final DecodeScheduler mScheduler;
+
+    /**
+     * 回调主线程
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 底图及其采样率
+     */
+    private Bitmap mBaseBitmap;
+    private int mBaseSampleSize;
+
+    /**
+     * 正在解码的底图
+     */
+    private DecodeTask mBaseTask;
+
+    /**
+     * 底图解码完成之前显示的预览图,不归TiledImage管理
+     */
+    private Bitmap mPreview;
+
+    /**
+     * 后台线程正在使用解码器的次数,和是否已经回收
+     * <p>
+     * 解码过程中不能回收解码器,最后一个解码结束时再回收.
+     */
+    private final Object mDecoderLock = new Object();
+    private int mDecodingCount;
+    private boolean mRecycled;
+
+    /**
+     * 各个采样率下的图块网格,key为采样率
+     */
+    private final SparseArray<Tile[]> mTileGrids = new SparseArray<Tile[]>();
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * 绘制过程的临时变量
+     */
+    private final Matrix mInverse = new Matrix();
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mTileRect = new RectF();
+    private final float[] mPoint = new float[2];
+    private final float[] mScale = new float[2];
+
+    /**
+     * 预取区域,原图坐标,及其采样率,没有预取时采样率为0
+     *
+     * @see #prefetch(Matrix, int, int)
+     */
+    private final RectF mPrefetchRect = new RectF();
+    private int mPrefetchSampleSize;
+
+    /**
+     * 最近一次绘制时可见图块的采样率,只显示底图时为0.可见区域为mVisibleRect
+     */
+    private int mVisibleSampleSize;
+
+    /**
+     * 最近一次绘制时需要的底图采样率
+     */
+    private int mBaseSampleSizeTarget;
+
+    /**
+     * 创建分块大图
+     *
+     * @param decoder 区域解码器,之后由TiledImage负责回收
+     * @param pool    复用图块内存的对象池,可以为null
+     */
+    public TiledImage(BitmapRegionDecoder decoder, BitmapPool pool) {
+        this(decoder, pool, DecodeScheduler.getDefault());
+    }
+
+    /**
+     * 创建分块大图
+     *
+     * @param decoder   区域解码器,之后由TiledImage负责回收
+     * @param pool      复用图块内存的对象池,可以为null
+     * @param scheduler 解码调度器
+     */
+    public TiledImage(BitmapRegionDecoder decoder, BitmapPool pool, DecodeScheduler scheduler) {
+        mDecoder = decoder;
+        mPool = pool;
+        mScheduler = scheduler;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mPlaceholder = new PlaceholderDrawable(mWidth, mHeight);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 获取占位drawable
+     * <p>
+     * 它的固有尺寸为原图尺寸,自身不绘制任何内容,设置给控件后控件的所有矩阵计算都基于原图坐标.
+     */
+    public Drawable getPlaceholder() {
+        return mPlaceholder;
+    }
+
+    /**
+     * 是否有可以绘制的内容,底图或者预览图
+     */
+    public boolean hasContent() {
+        return mBaseBitmap != null || mPreview != null;
+    }
+
+    /**
+     * 设置底图解码完成之前显示的预览图
+     * <p>
+     * 用于从整图替换成分块显示时避免闪烁,调用者需要保证它在TiledImage回收之前一直有效.
+     *
+     * @param preview 同一张图的缩小版本
+     */
+    public void setPreview(Bitmap preview) {
+        mPreview = preview;
+    }
+
+    /**
+     * 绘制可见区域
+     *
+     * @param canvas      画布
+     * @param matrix      原图到控件的总变换矩阵
+     * @param visibleRect 图片在控件上可见的部分,控件坐标
+     * @param viewWidth   控件宽度
+     * @param viewHeight  控件高度
+     */
+    public void draw(Canvas canvas, Matrix matrix, RectF visibleRect, int viewWidth, int viewHeight) {
+        int baseSampleSize = prepareBase(viewWidth, viewHeight);
+        mBaseSampleSizeTarget = baseSampleSize;
+        //可见区域换算到原图坐标
+        if (visibleRect.isEmpty() || !matrix.invert(mInverse)) {
+            mVisibleSampleSize = 0;
+            releaseTiles();
+            return;
+        }
+        mInverse.mapRect(mVisibleRect, visibleRect);
+        //按当前缩放比例选择采样率
+        int sampleSize = calculateSampleSize(MathUtils.getMatrixScale(matrix, mScale)[0]);
+        mVisibleSampleSize = sampleSize < baseSampleSize ? sampleSize : 0;
+
+        canvas.save();
+        canvas.concat(matrix);
+        Bitmap base = mBaseBitmap != null ? mBaseBitmap : mPreview;
+        if (base != null) {
+            mTileRect.set(0, 0, mWidth, mHeight);
+            canvas.drawBitmap(base, null, mTileRect, mPaint);
+        }
+        //比底图清晰的时候才需要图块
+        if (sampleSize < baseSampleSize) {
+            Tile[] grid = getGrid(sampleSize);
+            float diagonal = (float) Math.hypot(viewWidth, viewHeight);
+            for (Tile tile : grid) {
+                mTileRect.set(tile.mSrc);
+                if (RectF.intersects(mTileRect, mVisibleRect)) {
+                    if (tile.mBitmap != null) {
+                        canvas.drawBitmap(tile.mBitmap, null, mTileRect, mPaint);
+                    } else {
+                        //图块中心到可见区域中心的距离,控件坐标
+                        mPoint[0] = mTileRect.centerX();
+                        mPoint[1] = mTileRect.centerY();
+                        matrix.mapPoints(mPoint);
+                        float distance = (float) Math.hypot(mPoint[0] - visibleRect.centerX(), mPoint[1] - visibleRect.centerY());
+                        requestTile(tile, sampleSize, calculatePriority(distance / diagonal, sampleSize));
+                    }
+                } else if (!isPrefetched(sampleSize, mTileRect)) {
+                    //滚出可见区域的图块立即释放,还没开始的解码取消
+                    releaseTile(tile);
+                }
+            }
+        }
+        canvas.restore();
+        //其他采样率的图块不会再显示,释放掉
+        releaseTilesExcept(sampleSize);
+    }
+
+    /**
+     * 预先解码将要显示的区域
+     * <p>
+     * 惯性滑动开始时就能算出停止位置,提前按停止时的缩放比例解码那里的图块,
+     * 停下来时图块已经就绪,不会先显示一段时间模糊的底图.
+     * 预取的图块排在所有可见图块之后,在{@link #clearPrefetch()}之前滚出可见区域也不会被释放.
+     *
+     * @param matrix     预测的原图到控件的总变换矩阵
+     * @param viewWidth  控件宽度
+     * @param viewHeight 控件高度
+     */
+    public void prefetch(Matrix matrix, int viewWidth, int viewHeight) {
+        if (isRecycled() || !matrix.invert(mInverse)) {
+            return;
+        }
+        int sampleSize = calculateSampleSize(MathUtils.getMatrixScale(matrix, mScale)[0]);
+        //底图还没有准备时以fit center状态估算
+        int baseSampleSize = mBaseSampleSizeTarget > 0 ? mBaseSampleSizeTarget
+                : calculateSampleSize(Math.min((float) viewWidth / mWidth, (float) viewHeight / mHeight));
+        if (sampleSize >= baseSampleSize) {
+            clearPrefetch();
+            return;
+        }
+        mPrefetchRect.set(0, 0, viewWidth, viewHeight);
+        mInverse.mapRect(mPrefetchRect);
+        mPrefetchSampleSize = sampleSize;
+        for (Tile tile : getGrid(sampleSize)) {
+            mTileRect.set(tile.mSrc);
+            if (tile.mBitmap == null && tile.mTask == null && RectF.intersects(mTileRect, mPrefetchRect)) {
+                requestTile(tile, sampleSize, calculatePriority(1f, sampleSize));
+            }
+        }
+    }
+
+    /**
+     * 取消预取,预取区域内不可见的图块在下次绘制时释放
+     */
+    public void clearPrefetch() {
+        mPrefetchSampleSize = 0;
+        mPrefetchRect.setEmpty();
+    }
+
+    /**
+     * 图块是否在预取区域内
+     *
+     * @param sampleSize 图块的采样率
+     * @param tileRect   图块区域,原图坐标
+     */
+    private boolean isPrefetched(int sampleSize, RectF tileRect) {
+        return sampleSize == mPrefetchSampleSize && RectF.intersects(tileRect, mPrefetchRect);
+    }
+
+    /**
+     * 计算图块的解码优先级,数值越小越先解码
+     * <p>
+     * 整数部分为缩放级别,采样率越小的图块越优先,它们属于放大程度更高,用户正在细看的图.
+     * 小数部分为离可见区域中心的距离和控件对角线的比值,同一级别内从中心向外解码.
+     *
+     * @param distance   离可见区域中心的相对距离
+     * @param sampleSize 采样率
+     */
+    static float calculatePriority(float distance, int sampleSize) {
+        int level = 31 - Integer.numberOfLeadingZeros(sampleSize);
+        return level + Math.min(distance, 0.999f);
+    }
+
+    /**
+     * 请求解码图块,已经在排队的更新优先级
+     */
+    private void requestTile(Tile tile, int sampleSize, float priority) {
+        if (tile.mTask == null) {
+            tile.mTask = new DecodeTask(tile, tile.mSrc, sampleSize, priority);
+            mScheduler.submit(tile.mTask);
+        } else if (Math.abs(tile.mTask.getPriority() - priority) > PRIORITY_TOLERANCE) {
+            mScheduler.reprioritize(tile.mTask, priority);
+        }
+    }
+
+    /**
+     * 释放所有图块,底图保留
+     */
+    public void releaseTiles() {
+        clearPrefetch();
+        releaseTilesExcept(0);
+    }
+
+    /**
+     * 释放最近一次绘制时看不到的图块,包括预取的图块,底图保留
+     * <p>
+     * 可见的图块留着,重新显示时不用等待解码.
+     */
+    public void releaseOffscreenTiles() {
+        clearPrefetch();
+        for (int i = 0; i < mTileGrids.size(); i++) {
+            int key = mTileGrids.keyAt(i);
+            for (Tile tile : mTileGrids.valueAt(i)) {
+                mTileRect.set(tile.mSrc);
+                if (key != mVisibleSampleSize || !RectF.intersects(mTileRect, mVisibleRect)) {
+                    releaseTile(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按级别释放图块
+     * <p>
+     * 低级别只释放看不到的图块,{@link Trimmable#TRIM_LEVEL_VISIBLE_ONLY}释放全部图块,只保留底图.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (level >= TRIM_LEVEL_VISIBLE_ONLY) {
+            releaseTiles();
+        } else {
+            releaseOffscreenTiles();
+        }
+    }
+
+    /**
+     * 释放全部资源,之后不能再使用
+     */
+    public void recycle() {
+        releaseTiles();
+        if (mBaseTask != null) {
+            mScheduler.cancel(mBaseTask);
+            mBaseTask = null;
+        }
+        if (mBaseBitmap != null) {
+            releaseBitmap(mBaseBitmap);
+            mBaseBitmap = null;
+        }
+        mPreview = null;
+        synchronized (mDecoderLock) {
+            mRecycled = true;
+            if (mDecodingCount == 0) {
+                mDecoder.recycle();
+            }
+        }
+    }
+
+    private boolean isRecycled() {
+        synchronized (mDecoderLock) {
+            return mRecycled;
+        }
+    }
+
+    /**
+     * 按控件大小准备fit center状态下需要的底图
+     *
+     * @return 底图的采样率
+     */
+    private int prepareBase(int viewWidth, int viewHeight) {
+        float fitScale = Math.min((float) viewWidth / mWidth, (float) viewHeight / mHeight);
+        int sampleSize = calculateSampleSize(fitScale);
+        if (mBaseBitmap != null && mBaseSampleSize == sampleSize) {
+            return sampleSize;
+        }
+        if (mBaseTask != null) {
+            if (mBaseTask.mSampleSize == sampleSize) {
+                return sampleSize;
+            }
+            mScheduler.cancel(mBaseTask);
+        }
+        mBaseTask = new DecodeTask(null, new Rect(0, 0, mWidth, mHeight), sampleSize, DecodeScheduler.PRIORITY_HIGHEST);
+        mScheduler.submit(mBaseTask);
+        return sampleSize;
+    }
+
+    /**
+     * 在主线程接收解码结果
+     * <p>
+     * 已经取消,已经被新任务替换或者已经回收时,结果直接还给对象池.
+     */
+    private void onDecoded(DecodeTask task, Bitmap bitmap) {
+        Tile tile = task.mTile;
+        boolean current = !task.isCancelled() && !isRecycled()
+                && (tile == null ? mBaseTask == task : tile.mTask == task);
+        if (tile == null) {
+            if (mBaseTask == task) {
+                mBaseTask = null;
+            }
+        } else if (tile.mTask == task) {
+            tile.mTask = null;
+        }
+        if (bitmap == null) {
+            return;
+        }
+        if (!current) {
+            releaseBitmap(bitmap);
+            return;
+        }
+        if (tile == null) {
+            if (mBaseBitmap != null) {
+                releaseBitmap(mBaseBitmap);
+            }
+            mBaseBitmap = bitmap;
+            mBaseSampleSize = task.mSampleSize;
+            mPreview = null;
+        } else {
+            tile.mBitmap = bitmap;
+        }
+        //通过占位drawable的回调刷新控件
+        mPlaceholder.invalidateSelf();
+    }
+
+    /**
+     * 计算采样率
+     * <p>
+     * 取不大于1/scale的最大的2的幂,保证解码结果的分辨率不低于屏幕上显示的分辨率.
+     *
+     * @param scale 原图到屏幕的缩放比例
+     * @return 采样率
+     */
+    static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        float max = 1f / scale;
+        while (sampleSize * 2 <= max) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 获取某个采样率下的图块网格,没有则创建
+     */
+    private Tile[] getGrid(int sampleSize) {
+        Tile[] grid = mTileGrids.get(sampleSize);
+        if (grid == null) {
+            int tileSrcSize = TILE_SIZE * sampleSize;
+            int cols = (mWidth + tileSrcSize - 1) / tileSrcSize;
+            int rows = (mHeight + tileSrcSize - 1) / tileSrcSize;
+            grid = new Tile[cols * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int left = col * tileSrcSize;
+                    int top = row * tileSrcSize;
+                    grid[row * cols + col] = new Tile(new Rect(left, top,
+                            Math.min(left + tileSrcSize, mWidth), Math.min(top + tileSrcSize, mHeight)));
+                }
+            }
+            mTileGrids.put(sampleSize, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * 释放除指定采样率以外所有图块
+     */
+    private void releaseTilesExcept(int sampleSize) {
+        for (int i = 0; i < mTileGrids.size(); i++) {
+            int key = mTileGrids.keyAt(i);
+            if (key == sampleSize) {
+                continue;
+            }
+            for (Tile tile : mTileGrids.valueAt(i)) {
+                mTileRect.set(tile.mSrc);
+                //预取的图块保留
+                if (!isPrefetched(key, mTileRect)) {
+                    releaseTile(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * 解码原图的一块区域,在后台线程执行
+     * <p>
+     * API 16以上复用对象池里的bitmap.
+     *
+     * @param src        原图坐标下的区域
+     * @param sampleSize 采样率
+     * @return 解码结果, 失败返回null
+     */
+    private Bitmap decodeRegion(Rect src, int sampleSize) {
+        synchronized (mDecoderLock) {
+            if (mRecycled) {
+                return null;
+            }
+            mDecodingCount++;
+        }
+        try {
+            return decodeRegionLocked(src, sampleSize);
+        } finally {
+            synchronized (mDecoderLock) {
+                mDecodingCount--;
+                if (mRecycled && mDecodingCount == 0) {
+                    mDecoder.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 解码失败返回null,不抛出异常
+     */
+    private Bitmap decodeRegionLocked(Rect src, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        if (mPool != null && Build.VERSION.SDK_INT >= 16) {
+            int width = (src.width() + sampleSize - 1) / sampleSize;
+            int height = (src.height() + sampleSize - 1) / sampleSize;
+            mPool.applyTo(options, width, height);
+        }
+        try {
+            return mDecoder.decodeRegion(src, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                Log.w(TAG, "decodeRegion: " + src, e);
+                return null;
+            }
+        }
+        //复用的bitmap不合适,不复用再解一次
+        mPool.clearFrom(options);
+        try {
+            return mDecoder.decodeRegion(src, options);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "decodeRegion: " + src, e);
+            return null;
+        }
+    }
+
+    /**
+     * 释放图块的解码结果
+     */
+    private void releaseTile(Tile tile) {
+        if (tile.mTask != null) {
+            mScheduler.cancel(tile.mTask);
+            tile.mTask = null;
+        }
+        if (tile.mBitmap != null) {
+            releaseBitmap(tile.mBitmap);
+            tile.mBitmap = null;
+        }
+    }
+
+    /**
+     * 不再使用的bitmap还给对象池,没有对象池就直接回收
+     */
+    private void releaseBitmap(Bitmap bitmap) {
+        if (mPool != null) {
+            mPool.given(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 图块
+     */
+    private static class Tile {
+
+        /**
+         * 原图坐标下的区域
+         */
+        final Rect mSrc;
+
+        /**
+         * 解码结果,未解码或者已释放时为null
+         */
+        Bitmap mBitmap;
+
+        /**
+         * 正在进行的解码
+         */
+        DecodeTask mTask;
+
+        Tile(Rect src) {
+            mSrc = src;
+        }
+    }
+
+    /**
+     * 底图或者图块的解码任务
+     */
+    private class DecodeTask extends DecodeScheduler.Task {
+
+        /**
+         * 所属图块,底图为null
+         */
+        final Tile mTile;
+
+        final Rect mSrc;
+
+        final int mSampleSize;
+
+        DecodeTask(Tile tile, Rect src, int sampleSize, float priority) {
+            super(priority);
+            mTile = tile;
+            mSrc = src;
+            mSampleSize = sampleSize;
+        }
+
+        @Override
+        protected void execute() {
+            Bitmap bitmap = null;
+            try {
+                bitmap = decodeRegion(mSrc, mSampleSize);
+            } catch (Throwable e) {
+                //包括内存不足,这一块留空,底图照常绘制
+                Log.e(TAG, "decode failed: " + mSrc + ", sampleSize:" + mSampleSize, e);
+            }
+            //解码出错也要回到主线程清理任务状态
+            postResult(bitmap);
+        }
+
+        private void postResult(final Bitmap bitmap) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onDecoded(DecodeTask.this, bitmap);
+                }
+            });
+        }
+    }
+
+    /**
+     * 只提供固有尺寸的空drawable
+     */
+    private static class PlaceholderDrawable extends Drawable {
+
+        private final int mWidth;
+        private final int mHeight;
+
+        PlaceholderDrawable(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSPARENT;
+        }
+    }
+}
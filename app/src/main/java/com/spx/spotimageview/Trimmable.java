@@ -0,0 +1,34 @@
+package com.spx.spotimageview;
+
+/**
+ * 可以在内存紧张时释放部分内存的对象
+ * <p>
+ * 通过{@link MemoryTrimmer#register(Trimmable)}注册后,系统发出内存警告时按级别回调.
+ * 级别越高释放的越多,每一级都包含前面级别要释放的内容.
+ *
+ * @see MemoryTrimmer
+ */
+public interface Trimmable {
+
+    /**
+     * 释放当前看不到的内容:滚出屏幕和预取的图块,缓存和对象池的一部分
+     */
+    int TRIM_LEVEL_OFFSCREEN = 1;
+
+    /**
+     * 再释放多级缩小版本中当前没有绘制的级别,缓存只保留一小部分,清空对象池
+     */
+    int TRIM_LEVEL_PYRAMID = 2;
+
+    /**
+     * 只保留正在显示的底图,其他全部释放
+     */
+    int TRIM_LEVEL_VISIBLE_ONLY = 3;
+
+    /**
+     * 释放内存,在主线程调用
+     *
+     * @param level 释放级别
+     */
+    void trimMemory(int level);
+}
@@ -0,0 +1,155 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import org.robolectric.Robolectric;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把录制的手势回放到PinchImageView上并统计
+ * <p>
+ * 每个事件之前把主线程的调度器推进到事件时间,期间的帧回调按时执行,
+ * 最后一个事件之后再推进{@link #SETTLE_MILLIS}等动画结束.
+ * 松手后图片会回弹,所以除了最终的矩阵还记录回放过程中的最大缩放比例.
+ * 每个事件的分配字节数和CPU时间只统计dispatchTouchEvent本身,不支持的jvm上为-1.
+ *
+ * @see GestureRecorder
+ */
+class GestureReplayer {
+
+    /**
+     * 最后一个事件之后等待动画结束的时间
+     */
+    static final long SETTLE_MILLIS = 2000;
+
+    private GestureReplayer() {
+    }
+
+    static Report replay(PinchImageView view, List<MotionEvent> events) {
+        com.sun.management.ThreadMXBean threadMXBean = null;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            if (threadMXBean.isThreadAllocatedMemorySupported()) {
+                threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        long threadId = Thread.currentThread().getId();
+        Report report = new Report(events.size());
+        int invalidateStart = view.getInvalidateCount();
+        Matrix matrix = new Matrix();
+        for (int i = 0; i < events.size(); i++) {
+            MotionEvent event = events.get(i);
+            advanceTo(event.getEventTime());
+            long allocatedBefore = getAllocatedBytes(threadMXBean, threadId);
+            long cpuBefore = getCpuTime(bean);
+            view.dispatchTouchEvent(event);
+            long cpuAfter = getCpuTime(bean);
+            long allocatedAfter = getAllocatedBytes(threadMXBean, threadId);
+            report.mAllocatedBytes[i] = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+            report.mCpuNanos[i] = cpuBefore < 0 ? -1 : cpuAfter - cpuBefore;
+            view.getOuterMatrix(matrix).getValues(report.mOuterMatrix);
+            report.mPeakScale = Math.max(report.mPeakScale, report.getScale());
+        }
+        advanceTo(SystemClock.uptimeMillis() + SETTLE_MILLIS);
+        report.mInvalidateCount = view.getInvalidateCount() - invalidateStart;
+        view.getOuterMatrix(matrix).getValues(report.mOuterMatrix);
+        return report;
+    }
+
+    private static void advanceTo(long time) {
+        if (time > SystemClock.uptimeMillis()) {
+            Robolectric.getForegroundThreadScheduler().advanceTo(time);
+        }
+    }
+
+    private static long getAllocatedBytes(com.sun.management.ThreadMXBean bean, long threadId) {
+        if (bean == null || !bean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return bean.getThreadAllocatedBytes(threadId);
+    }
+
+    private static long getCpuTime(java.lang.management.ThreadMXBean bean) {
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return bean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * 回放结果
+     */
+    static class Report {
+
+        /**
+         * 回放结束后的外部变换矩阵
+         *
+         * @see PinchImageView#getOuterMatrix(Matrix)
+         */
+        final float[] mOuterMatrix = new float[9];
+
+        /**
+         * 回放过程中每个事件之后外部矩阵缩放比例的最大值
+         */
+        float mPeakScale;
+
+        /**
+         * 回放期间调用invalidate的次数
+         */
+        int mInvalidateCount;
+
+        /**
+         * 每个事件分配的字节数
+         */
+        final long[] mAllocatedBytes;
+
+        /**
+         * 每个事件的CPU时间,纳秒
+         */
+        final long[] mCpuNanos;
+
+        Report(int eventCount) {
+            mAllocatedBytes = new long[eventCount];
+            mCpuNanos = new long[eventCount];
+        }
+
+        float getScale() {
+            return mOuterMatrix[Matrix.MSCALE_X];
+        }
+
+        long getMaxAllocatedBytes() {
+            long max = -1;
+            for (long bytes : mAllocatedBytes) {
+                max = Math.max(max, bytes);
+            }
+            return max;
+        }
+
+        long getTotalCpuNanos() {
+            long total = 0;
+            for (long nanos : mCpuNanos) {
+                if (nanos < 0) {
+                    return -1;
+                }
+                total += nanos;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{events=" + mCpuNanos.length
+                    + ", outerMatrix=" + Arrays.toString(mOuterMatrix)
+                    + ", peakScale=" + mPeakScale
+                    + ", invalidateCount=" + mInvalidateCount
+                    + ", maxAllocatedBytes=" + getMaxAllocatedBytes()
+                    + ", totalCpuNanos=" + getTotalCpuNanos() + "}";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.spx.spotimageview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 检查双指缩放时每个移动事件执行的计算不分配内存
+ * <p>
+ * 通过ThreadMXBean统计当前线程分配的字节数,不支持的jvm上跳过.
+ * 只测试纯浮点计算,Matrix在本地单元测试里不可用.
+ * 控件处理整个移动事件不分配内存由真机上的PinchImageViewAllocationTest检查.
+ */
+public class MathUtilsAllocationTest {
+
+    private static final int EVENTS = 100000;
+
+    /**
+     * 扣除统计本身的开销后允许的误差,字节
+     * <p>
+     * 不到3个float[2]的大小,只要有按事件发生的分配就会超出.
+     */
+    private static final long TOLERANCE_BYTES = 64;
+
+    private com.sun.management.ThreadMXBean mThreadMXBean;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadMXBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mThreadMXBean.isThreadAllocatedMemorySupported());
+        mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void moveEvent_doesNotAllocate() {
+        float[] center = new float[2];
+        //预热,排除类加载和解释执行的影响
+        simulateMoves(center, EVENTS);
+        emptyLoop(EVENTS);
+        long threadId = Thread.currentThread().getId();
+        //用空循环校准读取统计值本身的分配
+        long before = mThreadMXBean.getThreadAllocatedBytes(threadId);
+        int count = emptyLoop(EVENTS);
+        long overhead = mThreadMXBean.getThreadAllocatedBytes(threadId) - before;
+        before = mThreadMXBean.getThreadAllocatedBytes(threadId);
+        float sum = simulateMoves(center, EVENTS);
+        long allocated = mThreadMXBean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("bytes allocated by " + count + " move events: " + allocated + ", overhead: " + overhead + ", sum=" + sum,
+                allocated - overhead <= TOLERANCE_BYTES);
+    }
+
+    @Test
+    public void getCenterPoint_writesOut() {
+        float[] out = new float[2];
+        float[] result = MathUtils.getCenterPoint(0f, 10f, 20f, 30f, out);
+        assertEquals(out, result);
+        assertEquals(10f, out[0], 0f);
+        assertEquals(20f, out[1], 0f);
+    }
+
+    /**
+     * 和{@link #simulateMoves(float[], int)}相同的循环,不做计算
+     */
+    private static int emptyLoop(int count) {
+        int i = 0;
+        while (i < count) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 和onTouchEvent缩放模式下的计算相同:两指距离和两指中点
+     */
+    private static float simulateMoves(float[] center, int count) {
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            float x1 = i % 1080;
+            float y1 = i % 1920;
+            float x2 = 1080 - x1;
+            float y2 = 1920 - y1;
+            float distance = MathUtils.getDistance(x1, y1, x2, y2);
+            float[] lineCenter = MathUtils.getCenterPoint(x1, y1, x2, y2, center);
+            sum += distance + lineCenter[0] + lineCenter[1];
+        }
+        return sum;
+    }
+}
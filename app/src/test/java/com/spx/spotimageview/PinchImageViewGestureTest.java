@@ -0,0 +1,150 @@
+package com.spx.spotimageview;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回放手势检查PinchImageView的行为
+ * <p>
+ * 手势由代码生成后经过{@link GestureRecorder}的格式读写,和回放录制文件走同一条路径.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PinchImageViewGestureTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+
+    /**
+     * 移动事件的间隔,毫秒
+     */
+    private static final int MOVE_INTERVAL = 16;
+
+    private PinchImageView mView;
+
+    @Before
+    public void setUp() {
+        mView = new PinchImageView(RuntimeEnvironment.application);
+        //图片足够小,不会生成多级缩小版本
+        mView.setImageBitmap(Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888));
+        mView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        mView.setImageDrawable(null);
+    }
+
+    @Test
+    public void recording_roundTrip() throws IOException {
+        List<MotionEvent> events = readEvents(recordPinch(200, 600));
+        assertEquals(MotionEvent.ACTION_DOWN, events.get(0).getActionMasked());
+        assertEquals(MotionEvent.ACTION_POINTER_DOWN, events.get(1).getActionMasked());
+        assertEquals(1, events.get(1).getActionIndex());
+        assertEquals(2, events.get(1).getPointerCount());
+        MotionEvent last = events.get(events.size() - 1);
+        assertEquals(MotionEvent.ACTION_UP, last.getActionMasked());
+        assertEquals(VIEW_WIDTH / 2 + 300, last.getX(), 0.01f);
+        recycle(events);
+    }
+
+    @Test
+    public void pinchOut_zoomsIn() throws IOException {
+        List<MotionEvent> events = readEvents(recordPinch(200, 600));
+        GestureReplayer.Report report = GestureReplayer.replay(mView, events);
+        //手指张开时放大,松手后回弹到fit center
+        assertTrue("peak scale " + report.mPeakScale, report.mPeakScale > 1.5f);
+        assertEquals(1f, report.getScale(), 0.01f);
+        assertTrue(report.mInvalidateCount > 0);
+        recycle(events);
+    }
+
+    @Test
+    public void pinchIn_springsBack() throws IOException {
+        List<MotionEvent> events = readEvents(recordPinch(600, 200));
+        GestureReplayer.Report report = GestureReplayer.replay(mView, events);
+        //缩小到fit center以下松手后弹回
+        assertTrue("peak scale " + report.mPeakScale, report.mPeakScale <= 1f);
+        assertEquals(1f, report.getScale(), 0.01f);
+        recycle(events);
+    }
+
+    /**
+     * 以控件中心为中点,两指水平方向从fromDistance张开或者捏合到toDistance
+     */
+    private static byte[] recordPinch(float fromDistance, float toDistance) throws IOException {
+        GestureRecorder recorder = new GestureRecorder();
+        float centerX = VIEW_WIDTH / 2;
+        float centerY = VIEW_HEIGHT / 2;
+        long downTime = 1000;
+        long time = downTime;
+        float half = fromDistance / 2;
+        record(recorder, downTime, time, MotionEvent.ACTION_DOWN, centerX - half, centerY);
+        time += MOVE_INTERVAL;
+        record(recorder, downTime, time, MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT),
+                centerX - half, centerY, centerX + half, centerY);
+        int steps = 20;
+        for (int i = 1; i <= steps; i++) {
+            time += MOVE_INTERVAL;
+            half = (fromDistance + (toDistance - fromDistance) * i / steps) / 2;
+            record(recorder, downTime, time, MotionEvent.ACTION_MOVE, centerX - half, centerY, centerX + half, centerY);
+        }
+        time += MOVE_INTERVAL;
+        record(recorder, downTime, time, MotionEvent.ACTION_POINTER_UP, centerX - half, centerY, centerX + half, centerY);
+        time += MOVE_INTERVAL;
+        record(recorder, downTime, time, MotionEvent.ACTION_UP, centerX + half, centerY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 生成一个事件交给recorder,坐标依次为每个手指的x,y
+     */
+    private static void record(GestureRecorder recorder, long downTime, long time, int action, float... xy) {
+        int pointerCount = xy.length / 2;
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = p;
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[p] = new MotionEvent.PointerCoords();
+            coords[p].x = xy[p * 2];
+            coords[p].y = xy[p * 2 + 1];
+            coords[p].pressure = 1;
+            coords[p].size = 1;
+        }
+        MotionEvent event = MotionEvent.obtain(downTime, time, action, pointerCount, properties, coords,
+                0, 0, 1, 1, 0, 0, 0, 0);
+        recorder.record(event);
+        event.recycle();
+    }
+
+    private static List<MotionEvent> readEvents(byte[] recording) throws IOException {
+        return GestureRecorder.readEvents(new ByteArrayInputStream(recording), SystemClock.uptimeMillis());
+    }
+
+    private static void recycle(List<MotionEvent> events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+}
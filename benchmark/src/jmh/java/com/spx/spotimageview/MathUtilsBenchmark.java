@@ -0,0 +1,145 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * MathUtils的基准测试
+ * <p>
+ * 覆盖每次触摸事件都会执行的计算:两指距离,中点,矩阵缩放值,点的逆变换,
+ * 以及scrollBy和scaleEnd里的边界修正.
+ */
+@State(Scope.Thread)
+public class MathUtilsBenchmark {
+
+    /**
+     * 放大2倍并平移后的矩阵,模拟双指缩放中的外部矩阵
+     */
+    private Matrix mMatrix;
+
+    /**
+     * 手指位置
+     */
+    private float mX1;
+    private float mY1;
+    private float mX2;
+    private float mY2;
+
+    private float[] mPoint;
+
+    /**
+     * 传给out参数重载的结果数组,和PinchImageView一样复用
+     */
+    private float[] mOut;
+
+    /**
+     * 放大后的图片方框,比控件大
+     */
+    private RectF mBound;
+
+    private PointF mDiff;
+
+    private RectF mScaledBound;
+
+    private float mDisplayWidth;
+    private float mDisplayHeight;
+
+    @Setup
+    public void setup() {
+        mMatrix = new Matrix();
+        mMatrix.postScale(2f, 2f, 540f, 960f);
+        mMatrix.postTranslate(-120f, 80f);
+        mX1 = 320f;
+        mY1 = 700f;
+        mX2 = 780f;
+        mY2 = 1240f;
+        mPoint = new float[]{mX1, mY1};
+        mOut = new float[2];
+        mDisplayWidth = 1080f;
+        mDisplayHeight = 1920f;
+        mBound = new RectF(-660f, -880f, 1500f, 2960f);
+        mDiff = new PointF();
+        mScaledBound = new RectF();
+    }
+
+    @Benchmark
+    public float getDistance() {
+        return MathUtils.getDistance(mX1, mY1, mX2, mY2);
+    }
+
+    @Benchmark
+    public float[] getCenterPoint() {
+        return MathUtils.getCenterPoint(mX1, mY1, mX2, mY2);
+    }
+
+    @Benchmark
+    public float[] getMatrixScale() {
+        return MathUtils.getMatrixScale(mMatrix);
+    }
+
+    @Benchmark
+    public float[] inverseMatrixPoint() {
+        return MathUtils.inverseMatrixPoint(mPoint, mMatrix);
+    }
+
+    /**
+     * 移动事件里实际调用的不分配内存的版本
+     */
+    @Benchmark
+    public float[] getCenterPointInto() {
+        return MathUtils.getCenterPoint(mX1, mY1, mX2, mY2, mOut);
+    }
+
+    @Benchmark
+    public float[] getMatrixScaleInto() {
+        return MathUtils.getMatrixScale(mMatrix, mOut);
+    }
+
+    @Benchmark
+    public float[] inverseMatrixPointInto() {
+        return MathUtils.inverseMatrixPoint(mPoint, mMatrix, mOut);
+    }
+
+    /**
+     * scrollBy里的边界修正,一个方向会越界
+     */
+    @Benchmark
+    public PointF limitScroll() {
+        mDiff.set(-40f, 900f);
+        MathUtils.limitScroll(mBound, mDisplayWidth, mDisplayHeight, mDiff);
+        return mDiff;
+    }
+
+    /**
+     * scaleEnd里的缩放修正,超过最大比例
+     */
+    @Benchmark
+    public float limitScale() {
+        return MathUtils.limitScale(5f, 5f, 4f);
+    }
+
+    /**
+     * scaleEnd里的位置修正
+     */
+    @Benchmark
+    public PointF limitBound() {
+        MathUtils.limitBound(mBound, mDisplayWidth, mDisplayHeight, mDiff);
+        return mDiff;
+    }
+
+    /**
+     * scaleEnd里由当前方框推算缩放修正后的方框
+     */
+    @Benchmark
+    public RectF scaleRect() {
+        mScaledBound.set(mBound);
+        MathUtils.scaleRect(mScaledBound, 0.8f, 540f, 960f);
+        return mScaledBound;
+    }
+}
@@ -0,0 +1,107 @@
+package com.spx.spotimageview;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * 对象池的基准测试
+ * <p>
+ * 和控件里的用法一样,借出之后马上归还.
+ * 作为对照,另外测一次直接new的开销.
+ * 多线程共享同一个对象池时分别测有线程本地缓存和只走加锁队列的情况.
+ */
+@State(Scope.Thread)
+public class ObjectsPoolBenchmark {
+
+    private MatrixPool mMatrixPool;
+
+    private RectFPool mRectFPool;
+
+    @Setup
+    public void setup() {
+        mMatrixPool = new MatrixPool(16);
+        mRectFPool = new RectFPool(16);
+    }
+
+    @Benchmark
+    public Matrix matrixTakeGiven() {
+        Matrix matrix = mMatrixPool.take();
+        mMatrixPool.given(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public RectF rectFTakeGiven() {
+        RectF rectF = mRectFPool.take();
+        mRectFPool.given(rectF);
+        return rectF;
+    }
+
+    /**
+     * 一次手势计算里同时借出多个对象,和scaleEnd的用法相同
+     */
+    @Benchmark
+    public Matrix matrixTakeGivenNested() {
+        Matrix a = mMatrixPool.take();
+        Matrix b = mMatrixPool.take();
+        Matrix c = mMatrixPool.take();
+        mMatrixPool.given(c);
+        mMatrixPool.given(b);
+        mMatrixPool.given(a);
+        return a;
+    }
+
+    /**
+     * 静态工具方法,走全局共享的对象池
+     */
+    @Benchmark
+    public Matrix mathUtilsMatrixTakeGiven() {
+        Matrix matrix = MathUtils.matrixTake();
+        MathUtils.matrixGiven(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public Matrix newMatrix() {
+        return new Matrix();
+    }
+
+    /**
+     * 多个线程共享的对象池
+     */
+    @State(Scope.Benchmark)
+    public static class SharedPools {
+
+        MatrixPool mCached;
+
+        MatrixPool mLocked;
+
+        @Setup
+        public void setup() {
+            mCached = new MatrixPool(16);
+            mLocked = new MatrixPool(16, 0);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Matrix sharedTakeGivenLocalCache(SharedPools pools) {
+        Matrix matrix = pools.mCached.take();
+        pools.mCached.given(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Matrix sharedTakeGivenLocked(SharedPools pools) {
+        Matrix matrix = pools.mLocked.take();
+        pools.mLocked.given(matrix);
+        return matrix;
+    }
+}
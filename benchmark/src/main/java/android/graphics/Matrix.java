@@ -0,0 +1,202 @@
+package android.graphics;
+
+/**
+ * android.graphics.Matrix的纯java替代实现,只用于基准测试
+ * <p>
+ * 只实现被测代码用到的方法,语义和android相同:
+ * 数值按行存放,post为左乘,pre为右乘,mapPoints计算M*p.
+ */
+public class Matrix {
+
+    public static final int MSCALE_X = 0;
+    public static final int MSKEW_X = 1;
+    public static final int MTRANS_X = 2;
+    public static final int MSKEW_Y = 3;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+    public static final int MPERSP_0 = 6;
+    public static final int MPERSP_1 = 7;
+    public static final int MPERSP_2 = 8;
+
+    private final float[] mValues = new float[9];
+
+    /**
+     * 乘法的临时变量
+     */
+    private final float[] mTemp = new float[9];
+
+    public Matrix() {
+        reset();
+    }
+
+    public Matrix(Matrix src) {
+        set(src);
+    }
+
+    public void reset() {
+        for (int i = 0; i < 9; i++) {
+            mValues[i] = 0;
+        }
+        mValues[MSCALE_X] = 1;
+        mValues[MSCALE_Y] = 1;
+        mValues[MPERSP_2] = 1;
+    }
+
+    public boolean isIdentity() {
+        return mValues[0] == 1 && mValues[1] == 0 && mValues[2] == 0
+                && mValues[3] == 0 && mValues[4] == 1 && mValues[5] == 0
+                && mValues[6] == 0 && mValues[7] == 0 && mValues[8] == 1;
+    }
+
+    public void set(Matrix src) {
+        if (src == null) {
+            reset();
+        } else {
+            System.arraycopy(src.mValues, 0, mValues, 0, 9);
+        }
+    }
+
+    public void getValues(float[] values) {
+        System.arraycopy(mValues, 0, values, 0, 9);
+    }
+
+    public void setValues(float[] values) {
+        System.arraycopy(values, 0, mValues, 0, 9);
+    }
+
+    public void setScale(float sx, float sy) {
+        reset();
+        mValues[MSCALE_X] = sx;
+        mValues[MSCALE_Y] = sy;
+    }
+
+    public void setTranslate(float dx, float dy) {
+        reset();
+        mValues[MTRANS_X] = dx;
+        mValues[MTRANS_Y] = dy;
+    }
+
+    public boolean postTranslate(float dx, float dy) {
+        //只有仿射变换时平移只影响最后一列
+        float[] v = mValues;
+        v[0] += dx * v[6];
+        v[1] += dx * v[7];
+        v[2] += dx * v[8];
+        v[3] += dy * v[6];
+        v[4] += dy * v[7];
+        v[5] += dy * v[8];
+        return true;
+    }
+
+    public boolean postScale(float sx, float sy) {
+        float[] v = mValues;
+        v[0] *= sx;
+        v[1] *= sx;
+        v[2] *= sx;
+        v[3] *= sy;
+        v[4] *= sy;
+        v[5] *= sy;
+        return true;
+    }
+
+    public boolean postScale(float sx, float sy, float px, float py) {
+        postTranslate(-px, -py);
+        postScale(sx, sy);
+        postTranslate(px, py);
+        return true;
+    }
+
+    public boolean postConcat(Matrix other) {
+        multiply(other.mValues, mValues, mValues);
+        return true;
+    }
+
+    public boolean preConcat(Matrix other) {
+        multiply(mValues, other.mValues, mValues);
+        return true;
+    }
+
+    public boolean setConcat(Matrix a, Matrix b) {
+        multiply(a.mValues, b.mValues, mValues);
+        return true;
+    }
+
+    public boolean invert(Matrix inverse) {
+        float[] m = mValues;
+        float a = m[4] * m[8] - m[5] * m[7];
+        float b = m[5] * m[6] - m[3] * m[8];
+        float c = m[3] * m[7] - m[4] * m[6];
+        float det = m[0] * a + m[1] * b + m[2] * c;
+        if (det == 0) {
+            return false;
+        }
+        float invDet = 1f / det;
+        float[] r = mTemp;
+        r[0] = a * invDet;
+        r[1] = (m[2] * m[7] - m[1] * m[8]) * invDet;
+        r[2] = (m[1] * m[5] - m[2] * m[4]) * invDet;
+        r[3] = b * invDet;
+        r[4] = (m[0] * m[8] - m[2] * m[6]) * invDet;
+        r[5] = (m[2] * m[3] - m[0] * m[5]) * invDet;
+        r[6] = c * invDet;
+        r[7] = (m[1] * m[6] - m[0] * m[7]) * invDet;
+        r[8] = (m[0] * m[4] - m[1] * m[3]) * invDet;
+        if (inverse != null) {
+            System.arraycopy(r, 0, inverse.mValues, 0, 9);
+        }
+        return true;
+    }
+
+    public void mapPoints(float[] pts) {
+        mapPoints(pts, pts);
+    }
+
+    public void mapPoints(float[] dst, float[] src) {
+        float[] m = mValues;
+        for (int i = 0; i + 1 < src.length; i += 2) {
+            float x = src[i];
+            float y = src[i + 1];
+            float w = m[6] * x + m[7] * y + m[8];
+            dst[i] = (m[0] * x + m[1] * y + m[2]) / w;
+            dst[i + 1] = (m[3] * x + m[4] * y + m[5]) / w;
+        }
+    }
+
+    public boolean mapRect(RectF rect) {
+        return mapRect(rect, rect);
+    }
+
+    public boolean mapRect(RectF dst, RectF src) {
+        float[] m = mValues;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            float x = (i & 1) == 0 ? src.left : src.right;
+            float y = (i & 2) == 0 ? src.top : src.bottom;
+            float w = m[6] * x + m[7] * y + m[8];
+            float mx = (m[0] * x + m[1] * y + m[2]) / w;
+            float my = (m[3] * x + m[4] * y + m[5]) / w;
+            minX = Math.min(minX, mx);
+            minY = Math.min(minY, my);
+            maxX = Math.max(maxX, mx);
+            maxY = Math.max(maxY, my);
+        }
+        dst.set(minX, minY, maxX, maxY);
+        return m[1] == 0 && m[3] == 0;
+    }
+
+    /**
+     * result = a * b
+     */
+    private void multiply(float[] a, float[] b, float[] result) {
+        float[] r = mTemp;
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                r[row * 3 + col] = a[row * 3] * b[col] + a[row * 3 + 1] * b[3 + col] + a[row * 3 + 2] * b[6 + col];
+            }
+        }
+        System.arraycopy(r, 0, result, 0, 9);
+    }
+}
@@ -0,0 +1,23 @@
+package android.graphics;
+
+/**
+ * android.graphics.PointF的纯java替代实现,只用于基准测试
+ */
+public class PointF {
+
+    public float x;
+    public float y;
+
+    public PointF() {
+    }
+
+    public PointF(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+}
@@ -0,0 +1,90 @@
+package android.graphics;
+
+/**
+ * android.graphics.RectF的纯java替代实现,只用于基准测试
+ */
+public class RectF {
+
+    public float left;
+    public float top;
+    public float right;
+    public float bottom;
+
+    public RectF() {
+    }
+
+    public RectF(float left, float top, float right, float bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public void set(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(RectF src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public void setEmpty() {
+        left = top = right = bottom = 0;
+    }
+
+    public void offset(float dx, float dy) {
+        left += dx;
+        top += dy;
+        right += dx;
+        bottom += dy;
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public float width() {
+        return right - left;
+    }
+
+    public float height() {
+        return bottom - top;
+    }
+
+    public float centerX() {
+        return (left + right) * 0.5f;
+    }
+
+    public float centerY() {
+        return (top + bottom) * 0.5f;
+    }
+
+    public boolean intersect(RectF r) {
+        if (left < r.right && r.left < right && top < r.bottom && r.top < bottom) {
+            left = Math.max(left, r.left);
+            top = Math.max(top, r.top);
+            right = Math.min(right, r.right);
+            bottom = Math.min(bottom, r.bottom);
+            return true;
+        }
+        return false;
+    }
+
+    public void union(RectF r) {
+        if (r.isEmpty()) {
+            return;
+        }
+        if (isEmpty()) {
+            set(r);
+            return;
+        }
+        left = Math.min(left, r.left);
+        top = Math.min(top, r.top);
+        right = Math.max(right, r.right);
+        bottom = Math.max(bottom, r.bottom);
+    }
+
+    public static boolean intersects(RectF a, RectF b) {
+        return a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom;
+    }
+}